@@ -0,0 +1,30 @@
+package org.javaprofile.bootman.byteman;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The way bootman talks to the Byteman agent. All operations return the agent's textual response, which is passed
+ * on to the REST caller as is.
+ */
+public interface AgentChannel {
+
+    String addRules(String scriptName, String rules) throws Exception;
+
+    String deleteRules(String scriptName, String rules) throws Exception;
+
+    String deleteAllRules() throws Exception;
+
+    String listAllRules() throws Exception;
+
+    /**
+     * Returns the text of the installed rules, by rule name, in the form the agent keeps them.
+     */
+    Map<String, String> installedRules() throws Exception;
+
+    /**
+     * Returns the errors the agent ran into while injecting the given rules, by rule name. Rules without errors are
+     * left out.
+     */
+    Map<String, String> ruleErrors(Collection<String> ruleNames) throws Exception;
+}
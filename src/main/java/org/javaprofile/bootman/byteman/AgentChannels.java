@@ -0,0 +1,50 @@
+package org.javaprofile.bootman.byteman;
+
+import org.jboss.byteman.agent.Retransformer;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+
+/**
+ * Hands out the {@link AgentChannel} matching the way the agent was activated: if it was activated in-process, bootman
+ * talks to it directly. Otherwise it goes through its listener.
+ */
+@Component
+public class AgentChannels {
+    private final AgentChannel listenerChannel = new ListenerAgentChannel();
+
+    public AgentChannel current() {
+        Retransformer retransformer = (Retransformer) inProcessRetransformer();
+        return retransformer != null ? new InProcessAgentChannel(retransformer) : listenerChannel;
+    }
+
+    public boolean isInProcess() {
+        return inProcessRetransformer() != null;
+    }
+
+    /**
+     * Drops the reference to the in-process agent.
+     */
+    public void terminateInProcess() {
+        invokeInProcessAgentManager("terminate");
+    }
+
+    private Object inProcessRetransformer() {
+        return invokeInProcessAgentManager("getRetransformer");
+    }
+
+    private Object invokeInProcessAgentManager(String methodName) {
+        //The agent initialized the copy of InProcessAgentManager loaded by the system classLoader. Just like
+        //Main.firstTime in BytemanController, our own copy may be hidden by a different classloader, so go through reflection.
+        Class<?> managerClazz = InProcessAgentManager.systemCopy();
+        if(managerClazz == null) {
+            return null;
+        }
+        try {
+            Method method = managerClazz.getMethod(methodName);
+            return method.invoke(null);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.javaprofile.bootman.byteman;
+
+/**
+ * How the Byteman agent is activated and driven by bootman.
+ */
+public enum AgentMode {
+    /**
+     * The agent is activated without its TCP listener. Rules are installed, listed and deleted by calling the agent's
+     * Retransformer directly from the bootman endpoints. This needs the bootman classes to be visible to the system
+     * class loader, which is the case unless bootman runs as an executable fat jar.
+     */
+    IN_PROCESS,
+    /**
+     * The agent starts its TransformListener on port 9091 and every operation opens a loopback connection to it.
+     */
+    LISTENER
+}
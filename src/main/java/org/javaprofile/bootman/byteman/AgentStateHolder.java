@@ -0,0 +1,138 @@
+package org.javaprofile.bootman.byteman;
+
+import org.jboss.byteman.agent.install.Install;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the lifecycle of the byteman agent in the current process, so that the endpoints can read it with a
+ * single volatile read instead of probing the VM through the Attach API on every request. The state is moved along by
+ * activateAgent/terminateAgent, and a background task compares it with what the Attach API reports, to pick up agents
+ * loaded or unloaded behind bootman's back (e.g. through -javaagent or bminstall).
+ */
+@Component
+public class AgentStateHolder {
+    private static final Logger logger = LoggerFactory.getLogger(AgentStateHolder.class);
+
+    public enum State {
+        INACTIVE, ACTIVATING, ACTIVE, TERMINATING
+    }
+
+    private final String pid;
+    private final ScheduledExecutorService reconciler;
+    private volatile State state;
+    //bumped on every transition, so that a reconciliation can tell whether the state moved while it was probing
+    private long transitions;
+
+    public AgentStateHolder(@Value("${bootman.byteman.state-reconcile-interval-seconds:30}") long reconcileIntervalSeconds) {
+        //get the processId of the current VM. In Java 8 world, this is perhaps the most portable way
+        //to get the pid. It never changes, so it is computed only once.
+        this.pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        this.state = probe() ? State.ACTIVE : State.INACTIVE;
+        this.reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bootman-agent-state-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (reconcileIntervalSeconds > 0) {
+            reconciler.scheduleWithFixedDelay(this::reconcile, reconcileIntervalSeconds, reconcileIntervalSeconds, TimeUnit.SECONDS);
+        }
+        logger.info("byteman agent is {} in current process with pid: {}", state, pid);
+    }
+
+    public String getPid() {
+        return pid;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isActive() {
+        return state == State.ACTIVE;
+    }
+
+    /**
+     * Moves the agent from INACTIVE to ACTIVATING. Returns false, leaving the state alone, if it is in any other state.
+     */
+    public synchronized boolean beginActivation() {
+        return transition(State.INACTIVE, State.ACTIVATING);
+    }
+
+    public synchronized void activated() {
+        transition(State.ACTIVATING, State.ACTIVE);
+    }
+
+    public synchronized void activationFailed() {
+        transition(State.ACTIVATING, State.INACTIVE);
+    }
+
+    /**
+     * Moves the agent from ACTIVE to TERMINATING. Returns false, leaving the state alone, if it is in any other state.
+     */
+    public synchronized boolean beginTermination() {
+        return transition(State.ACTIVE, State.TERMINATING);
+    }
+
+    public synchronized void terminated() {
+        transition(State.TERMINATING, State.INACTIVE);
+    }
+
+    private boolean transition(State from, State to) {
+        if (state != from) {
+            return false;
+        }
+        state = to;
+        transitions++;
+        logger.info("byteman agent state {} -> {}", from, to);
+        return true;
+    }
+
+    /**
+     * Compares the cached state with the Attach API. States in the middle of a transition are left alone, as are
+     * states which moved on while the probe was running.
+     */
+    public void reconcile() {
+        State observed;
+        long observedTransitions;
+        synchronized (this) {
+            observed = state;
+            observedTransitions = transitions;
+        }
+        if (observed == State.ACTIVATING || observed == State.TERMINATING) {
+            return;
+        }
+        boolean attached = probe();
+        State actual = attached ? State.ACTIVE : State.INACTIVE;
+        synchronized (this) {
+            if (actual != observed && transitions == observedTransitions) {
+                logger.warn("byteman agent was found {} while bootman assumed it to be {}. Correcting the agent state.", actual, observed);
+                state = actual;
+                transitions++;
+            }
+        }
+    }
+
+    private boolean probe() {
+        try {
+            return Install.isAgentAttached(pid);
+        } catch (Exception ex) {
+            //keep whatever we have. The next reconciliation will try again.
+            logger.warn("Ignoring exception encountered while checking whether the byteman agent is attached", ex);
+            return state == State.ACTIVE;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reconciler.shutdownNow();
+    }
+}
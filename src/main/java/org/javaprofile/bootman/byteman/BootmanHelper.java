@@ -0,0 +1,114 @@
+package org.javaprofile.bootman.byteman;
+
+import org.javaprofile.bootman.jfr.JfrEvents;
+import org.jboss.byteman.rule.Rule;
+import org.jboss.byteman.rule.helper.Helper;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Byteman helper which records what a rule costs. Byteman creates a new helper instance every time a rule is
+ * triggered, so the constructor counts the trigger. {@link RuleInstrumenter} wraps the condition of a rule in
+ * {@link #bootmanConditionPassed(boolean)} and ends its body with {@link #bootmanRuleCompleted()}. Sampled rules check
+ * {@link #bootmanSampled(double)} first, so that their condition and body only run for a share of the triggers. As it extends the
+ * default {@link Helper}, rules keep access to all the usual built-ins like traceln.
+ * <p>
+ * {@link #bufferTrace(Object)} is a non-blocking alternative to traceln and to calling a logger from a rule.
+ * {@link #debugRequest()} limits a rule to the requests tagged by {@link DebugRequestFilter}, e.g. IF debugRequest().
+ * The jfr methods commit custom JFR events, which only cost something while a recording is running.
+ */
+public class BootmanHelper extends Helper {
+    private static final ConcurrentMap<String, LongAdder[]> COUNTERS = RuleMetrics.shared();
+    private static final TraceRingBuffer TRACE_BUFFER = TraceRingBuffer.shared(TraceRingBuffer.DEFAULT_CAPACITY);
+    private static final ThreadLocal<String> DEBUG_TAGS = DebugRequests.shared();
+    private final LongAdder[] counters;
+    private final long triggeredAt;
+    private long conditionCheckedAt;
+
+    protected BootmanHelper(Rule rule) {
+        super(rule);
+        this.counters = RuleMetrics.forRule(COUNTERS, rule.getName());
+        counters[RuleMetrics.TRIGGERED].increment();
+        this.triggeredAt = System.nanoTime();
+    }
+
+    public boolean bootmanSampled(double samplingRate) {
+        return ThreadLocalRandom.current().nextDouble() < samplingRate;
+    }
+
+    /**
+     * Adds the message to the trace ring buffer, which is read through the traces endpoint. Never blocks: if the buffer
+     * is full the message is dropped and counted. Returns whether the message was buffered.
+     */
+    public boolean bufferTrace(Object message) {
+        return TRACE_BUFFER.offer(rule.getName(), String.valueOf(message));
+    }
+
+    /**
+     * Commits a bootman.RuleEvent with the message to the running JFR recordings.
+     */
+    public void jfrEvent(Object message) {
+        JfrEvents.ruleEvent(rule.getName(), message);
+    }
+
+    /**
+     * Begins a bootman.MethodTiming JFR event. Call from an AT ENTRY rule, with an AT EXIT rule calling
+     * {@link #jfrMethodExit(String)} and an AT EXCEPTION EXIT rule calling {@link #jfrMethodExceptionExit(String)}
+     * with the same method name.
+     */
+    public void jfrMethodEnter(String method) {
+        JfrEvents.methodEnter(rule.getName(), method);
+    }
+
+    public void jfrMethodExit(String method) {
+        JfrEvents.methodExit(method, false);
+    }
+
+    public void jfrMethodExceptionExit(String method) {
+        JfrEvents.methodExit(method, true);
+    }
+
+    /**
+     * Commits a bootman.Arguments JFR event summarizing the given values, e.g. jfrArguments($*).
+     */
+    public void jfrArguments(Object[] arguments) {
+        JfrEvents.arguments(rule.getName(), arguments);
+    }
+
+    /**
+     * Whether the current thread works on a request carrying the debug header. A single thread local lookup.
+     */
+    public boolean debugRequest() {
+        return DEBUG_TAGS.get() != null;
+    }
+
+    /**
+     * Whether the current thread works on a request whose debug header has the given value.
+     */
+    public boolean debugRequest(String tag) {
+        return tag.equals(DEBUG_TAGS.get());
+    }
+
+    /**
+     * The value of the debug header of the current request, or null.
+     */
+    public String debugTag() {
+        return DEBUG_TAGS.get();
+    }
+
+    public boolean bootmanConditionPassed(boolean passed) {
+        conditionCheckedAt = System.nanoTime();
+        counters[RuleMetrics.CONDITION_NANOS].add(conditionCheckedAt - triggeredAt);
+        if (passed) {
+            counters[RuleMetrics.CONDITION_PASSED].increment();
+        }
+        return passed;
+    }
+
+    public void bootmanRuleCompleted() {
+        counters[RuleMetrics.BODY_NANOS].add(System.nanoTime() - conditionCheckedAt);
+        counters[RuleMetrics.COMPLETED].increment();
+    }
+}
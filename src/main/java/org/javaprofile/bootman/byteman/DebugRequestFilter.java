@@ -0,0 +1,52 @@
+package org.javaprofile.bootman.byteman;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Tags the thread serving a request which carries the debug header with the header value, see {@link DebugRequests}.
+ * Async dispatches of the request are tagged again, as they run on another thread.
+ */
+@Component
+public class DebugRequestFilter extends OncePerRequestFilter {
+    private final boolean enabled;
+    private final String headerName;
+
+    public DebugRequestFilter(@Value("${bootman.byteman.debug-request.enabled:true}") boolean enabled,
+                              @Value("${bootman.byteman.debug-request.header:X-Bootman-Debug}") String headerName) {
+        this.enabled = enabled;
+        this.headerName = headerName;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled;
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        String tag = request.getHeader(headerName);
+        if (tag == null || tag.trim().isEmpty()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        String previous = DebugRequests.tag(tag.trim());
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            DebugRequests.restore(previous);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.javaprofile.bootman.byteman;
+
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Picked up by the task executor spring boot configures for @Async methods and async MVC handlers, so that tasks
+ * submitted while serving a debug request run with its debug tag.
+ */
+@Component
+public class DebugRequestTaskDecorator implements TaskDecorator {
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        return DebugRequests.propagate(runnable);
+    }
+}
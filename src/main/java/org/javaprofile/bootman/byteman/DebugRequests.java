@@ -0,0 +1,98 @@
+package org.javaprofile.bootman.byteman;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Debug tag of the request the current thread is working on, set by {@link DebugRequestFilter} for requests carrying
+ * the debug header. Rules check it through {@link BootmanHelper#debugRequest()}, so that they only do their work for
+ * the requests being debugged.
+ * <p>
+ * The tag is held in the thread local of the copy of this class loaded by the system class loader, so that helpers
+ * loaded by other class loaders see the same tag, see {@link RuleMetrics}. Tasks handed to other threads take the tag
+ * along when wrapped with one of the propagate methods.
+ */
+public final class DebugRequests {
+    private static final ThreadLocal<String> tags = new ThreadLocal<>();
+    private static volatile ThreadLocal<String> shared;
+
+    private DebugRequests() {
+    }
+
+    /**
+     * Called reflectively on the system class loader copy. Use {@link #shared()} instead.
+     */
+    public static ThreadLocal<String> tags() {
+        return tags;
+    }
+
+    @SuppressWarnings("unchecked")
+    static ThreadLocal<String> shared() {
+        if (shared == null) {
+            try {
+                Class<?> systemCopy = ClassLoader.getSystemClassLoader().loadClass(DebugRequests.class.getName());
+                shared = (ThreadLocal<String>) systemCopy.getMethod("tags").invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                shared = tags;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Returns the debug tag of the current thread, or null if it is not working on a debug request.
+     */
+    public static String currentTag() {
+        return shared().get();
+    }
+
+    /**
+     * Tags the current thread and returns its previous tag, to be handed to {@link #restore(String)} afterwards.
+     */
+    static String tag(String tag) {
+        ThreadLocal<String> tags = shared();
+        String previous = tags.get();
+        tags.set(tag);
+        return previous;
+    }
+
+    static void restore(String previous) {
+        if (previous == null) {
+            shared().remove();
+        } else {
+            shared().set(previous);
+        }
+    }
+
+    /**
+     * Lets the task run with the debug tag of the calling thread. Returns the task itself if there is no tag.
+     */
+    public static Runnable propagate(Runnable task) {
+        String tag = currentTag();
+        if (tag == null) {
+            return task;
+        }
+        return () -> {
+            String previous = tag(tag);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        String tag = currentTag();
+        if (tag == null) {
+            return task;
+        }
+        return () -> {
+            String previous = tag(tag);
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+}
@@ -0,0 +1,191 @@
+package org.javaprofile.bootman.byteman;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.jboss.byteman.agent.Retransformer;
+import org.jboss.byteman.agent.RuleScript;
+import org.jboss.byteman.agent.ScriptRepository;
+import org.jboss.byteman.agent.Transform;
+import org.jboss.byteman.agent.Transformer;
+import org.jboss.byteman.rule.Rule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Drives the agent's Retransformer directly from the calling thread. There is no socket and no text protocol involved,
+ * the response text is the same the TransformListener would have sent back.
+ * <p>
+ * installedRules and ruleErrors read the agent's rule scripts through reflection into Byteman internals, which are
+ * known to be there in the Byteman version pinned by InProcessAgentChannelTest. Should they be missing, both fall
+ * back to reading the rule listing, as {@link ListenerAgentChannel} does.
+ */
+public class InProcessAgentChannel implements AgentChannel {
+    private static final Logger logger = LoggerFactory.getLogger(InProcessAgentChannel.class);
+    private final Retransformer retransformer;
+    private volatile boolean reflectionFailed;
+
+    public InProcessAgentChannel(Retransformer retransformer) {
+        this.retransformer = retransformer;
+    }
+
+    @Override
+    public String addRules(String scriptName, String rules) throws Exception {
+        return call(out -> retransformer.installScript(ImmutableList.of(rules), ImmutableList.of(scriptName), out));
+    }
+
+    @Override
+    public String deleteRules(String scriptName, String rules) throws Exception {
+        return call(out -> retransformer.removeScripts(ImmutableList.of(rules), out));
+    }
+
+    @Override
+    public String deleteAllRules() throws Exception {
+        return call(out -> retransformer.removeScripts(null, out));
+    }
+
+    @Override
+    public String listAllRules() throws Exception {
+        return call(retransformer::listScripts);
+    }
+
+    @Override
+    public Map<String, String> installedRules() throws Exception {
+        if (reflectionFailed) {
+            return RuleListing.installedRules(listAllRules());
+        }
+        try {
+            return scriptRules();
+        } catch (ReflectiveOperationException ex) {
+            fallBackToListing(ex);
+            return RuleListing.installedRules(listAllRules());
+        }
+    }
+
+    private Map<String, String> scriptRules() throws Exception {
+        return withTriggersDisabled(() -> {
+            Map<String, String> rules = new LinkedHashMap<>();
+            for (RuleScript ruleScript : scriptRepository().currentRules()) {
+                // getRuleText() only holds the rule body. Render the whole rule the way listScripts does.
+                StringWriter text = new StringWriter();
+                PrintWriter out = new PrintWriter(text);
+                ruleScript.writeTo(out);
+                out.flush();
+                // keep the rule from RULE to ENDRULE, without the file header and the transform status
+                String ruleText = text.toString();
+                int start = ruleText.indexOf("RULE ");
+                int end = ruleText.indexOf("\nENDRULE", start) + "\nENDRULE".length();
+                rules.put(ruleScript.getName(), ruleText.substring(start, end));
+            }
+            return rules;
+        });
+    }
+
+    /**
+     * Reads the outcome of each transform straight from the rule scripts instead of rendering the full rule listing.
+     * Byteman only type checks a rule when it is triggered for the first time. That check is run right away here, so
+     * that a rule referring to e.g. an unknown method is reported now rather than on its first hit. The rule listing
+     * read without reflection only has the errors of rules which were triggered already.
+     */
+    @Override
+    public Map<String, String> ruleErrors(Collection<String> ruleNames) throws Exception {
+        if (reflectionFailed) {
+            return RuleListing.ruleErrors(listAllRules(), ruleNames);
+        }
+        try {
+            return transformErrors(ruleNames);
+        } catch (ReflectiveOperationException ex) {
+            fallBackToListing(ex);
+            return RuleListing.ruleErrors(listAllRules(), ruleNames);
+        }
+    }
+
+    private Map<String, String> transformErrors(Collection<String> ruleNames) throws Exception {
+        return withTriggersDisabled(() -> {
+            Map<String, String> errors = new LinkedHashMap<>();
+            ScriptRepository scriptRepository = scriptRepository();
+            Method ensureTypeCheckedCompiled = Rule.class.getDeclaredMethod("ensureTypeCheckedCompiled");
+            ensureTypeCheckedCompiled.setAccessible(true);
+            for (String ruleName : ruleNames) {
+                RuleScript ruleScript = scriptRepository.scriptForRuleName(ruleName);
+                if (ruleScript == null) {
+                    errors.put(ruleName, "rule is not installed");
+                    continue;
+                }
+                for (Transform transform : ruleScript.allTransforms()) {
+                    if (transform.getThrowable() != null) {
+                        errors.put(ruleName, "threw " + transform.getThrowable());
+                    } else if (transform.getRule() != null) {
+                        try {
+                            // records the outcome on the transform just like a trigger would
+                            ensureTypeCheckedCompiled.invoke(transform.getRule());
+                        } catch (InvocationTargetException ex) {
+                            errors.put(ruleName, "failed to type check " + ex.getCause());
+                            continue;
+                        }
+                        if (!transform.isCompiledOk()) {
+                            errors.put(ruleName, "failed to compile " + withoutStackTrace(transform.getDetail()));
+                        }
+                    }
+                }
+            }
+            return errors;
+        });
+    }
+
+    private void fallBackToListing(ReflectiveOperationException ex) {
+        reflectionFailed = true;
+        logger.warn("cannot read the rule scripts of this Byteman version through reflection. Reading the rule listing instead, "
+                + "which only reports errors of rules once they were triggered", ex);
+    }
+
+    private static String withoutStackTrace(String detail) {
+        return Strings.nullToEmpty(detail).split("\n\\s+at ", 2)[0].trim();
+    }
+
+    private ScriptRepository scriptRepository() throws ReflectiveOperationException {
+        // the Retransformer keeps its rules in a protected field and offers no accessor for it
+        Field field = Transformer.class.getDeclaredField("scriptRepository");
+        field.setAccessible(true);
+        return (ScriptRepository) field.get(retransformer);
+    }
+
+    private String call(AgentCall agentCall) throws Exception {
+        StringWriter response = new StringWriter();
+        PrintWriter out = new PrintWriter(response);
+        withTriggersDisabled(() -> {
+            agentCall.call(out);
+            return null;
+        });
+        out.flush();
+        return response.toString();
+    }
+
+    private <T> T withTriggersDisabled(Callable<T> action) throws Exception {
+        // the TransformListener serves one request at a time with rule triggering disabled on its thread.
+        // Do the same here, so that concurrent requests and rules matching code used by the agent behave as before.
+        synchronized (retransformer) {
+            boolean enabled = Rule.disableTriggers();
+            try {
+                return action.call();
+            } finally {
+                if (enabled) {
+                    Rule.enableTriggers();
+                }
+            }
+        }
+    }
+
+    private interface AgentCall {
+        void call(PrintWriter out) throws Exception;
+    }
+}
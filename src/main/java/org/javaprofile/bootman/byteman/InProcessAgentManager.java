@@ -0,0 +1,42 @@
+package org.javaprofile.bootman.byteman;
+
+import org.jboss.byteman.agent.Retransformer;
+
+/**
+ * Byteman agent manager used in {@link AgentMode#IN_PROCESS} mode. The agent is activated with the option
+ * manager:org.javaprofile.bootman.byteman.InProcessAgentManager instead of listener:true. It then hands its
+ * Retransformer to {@link #initialize(Retransformer)} rather than starting a TransformListener.
+ * <p>
+ * The agent loads this class through the system class loader. That copy may differ from the one bootman sees (e.g. with
+ * spring devtools' restart class loader), so bootman always goes through {@link #systemCopy()} to reach the state.
+ */
+public class InProcessAgentManager {
+    // kept as Object so that loading this class does not drag in the agent classes before the agent is activated
+    private static volatile Object retransformer;
+
+    /**
+     * Called reflectively by org.jboss.byteman.agent.Main once the agent is loaded.
+     */
+    public static void initialize(Retransformer retransformer) {
+        InProcessAgentManager.retransformer = retransformer;
+    }
+
+    public static Object getRetransformer() {
+        return retransformer;
+    }
+
+    public static void terminate() {
+        retransformer = null;
+    }
+
+    /**
+     * Returns the copy of this class which the agent talks to, or null if the system class loader cannot see it.
+     */
+    public static Class<?> systemCopy() {
+        try {
+            return ClassLoader.getSystemClassLoader().loadClass(InProcessAgentManager.class.getName());
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.javaprofile.bootman.byteman;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size latency histogram in the style of HdrHistogram: values below 128 ns get a bucket of their own, above that
+ * every power of two is split into 64 linear sub-buckets, so any recorded value is reported within 1/64 (~1.6%) of its
+ * actual value. Recording is a couple of atomic increments and never allocates.
+ * <p>
+ * The counts live in a plain {@link AtomicLongArray}, so that histograms can be shared between copies of the bootman
+ * classes loaded by different class loaders, see {@link MethodLatencies}.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    // covers values up to 2^47 ns, roughly 39 hours. Anything longer ends up in the last bucket.
+    private static final int BUCKET_COUNT = 40;
+    private static final int COUNTS_LENGTH = SUB_BUCKET_COUNT + BUCKET_COUNT * SUB_BUCKET_HALF;
+    private static final int TOTAL = COUNTS_LENGTH;
+    private static final int SUM = COUNTS_LENGTH + 1;
+    private static final int MAX = COUNTS_LENGTH + 2;
+    private static final int EXCEPTIONS = COUNTS_LENGTH + 3;
+
+    private final AtomicLongArray counts;
+
+    LatencyHistogram(AtomicLongArray counts) {
+        this.counts = counts;
+    }
+
+    static AtomicLongArray newCounts() {
+        return new AtomicLongArray(COUNTS_LENGTH + 4);
+    }
+
+    public void record(long nanos, boolean exceptional) {
+        record(counts, nanos, exceptional);
+    }
+
+    /**
+     * Records straight into the counts, for callers which look them up on every call and should not allocate a wrapper.
+     */
+    static void record(AtomicLongArray counts, long nanos, boolean exceptional) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        counts.incrementAndGet(TOTAL);
+        counts.addAndGet(SUM, value);
+        long max;
+        while (value > (max = counts.get(MAX)) && !counts.compareAndSet(MAX, max, value)) {
+            // retry until we either set the new max or someone else recorded a bigger one
+        }
+        if (exceptional) {
+            counts.incrementAndGet(EXCEPTIONS);
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // shift so that the value lands in [SUB_BUCKET_HALF, SUB_BUCKET_COUNT)
+        int bucket = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (bucket > BUCKET_COUNT) {
+            return COUNTS_LENGTH - 1;
+        }
+        int subBucket = (int) (value >>> bucket);
+        return SUB_BUCKET_COUNT + (bucket - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * The highest value which is recorded at the given index.
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int bucket = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    /**
+     * Takes a copy of the counts and computes the percentiles from it. Recording may go on in the meantime, so the
+     * numbers of a snapshot may be off by the few values recorded while it was being taken.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[COUNTS_LENGTH];
+        long total = 0;
+        for (int i = 0; i < COUNTS_LENGTH; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, counts.get(SUM), counts.get(MAX), counts.get(EXCEPTIONS));
+    }
+
+    public static class Snapshot {
+        private final long count;
+        private final long exceptions;
+        private final double meanMicros;
+        private final double maxMicros;
+        private final double p50Micros;
+        private final double p90Micros;
+        private final double p99Micros;
+        private final double p999Micros;
+
+        private Snapshot(long[] counts, long total, long sum, long max, long exceptions) {
+            this.count = total;
+            this.exceptions = exceptions;
+            this.meanMicros = total == 0 ? 0 : sum / 1000.0 / total;
+            this.maxMicros = max / 1000.0;
+            this.p50Micros = percentile(counts, total, max, 500);
+            this.p90Micros = percentile(counts, total, max, 900);
+            this.p99Micros = percentile(counts, total, max, 990);
+            this.p999Micros = percentile(counts, total, max, 999);
+        }
+
+        private static double percentile(long[] counts, long total, long max, int perMille) {
+            if (total == 0) {
+                return 0;
+            }
+            // rounds up in whole numbers, as e.g. 99.9 / 100 * 1000 comes out a little above 999 in floating point
+            long target = Math.max(1, total / 1000 * perMille + (total % 1000 * perMille + 999) / 1000);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    // the top of the bucket may lie above anything actually recorded. The last bucket also takes
+                    // everything beyond its top, of which only the max is known.
+                    return (i == counts.length - 1 ? max : Math.min(highestValueAt(i), max)) / 1000.0;
+                }
+            }
+            return max / 1000.0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * How many of the calls ended by throwing an exception.
+         */
+        public long getExceptions() {
+            return exceptions;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP90Micros() {
+            return p90Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getP999Micros() {
+            return p999Micros;
+        }
+    }
+}
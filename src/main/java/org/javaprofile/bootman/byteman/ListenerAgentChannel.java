@@ -0,0 +1,49 @@
+package org.javaprofile.bootman.byteman;
+
+import com.google.common.collect.ImmutableList;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Talks to the agent's TransformListener over a loopback TCP connection, one connection per operation.
+ */
+public class ListenerAgentChannel implements AgentChannel {
+
+    @Override
+    public String addRules(String scriptName, String rules) throws Exception {
+        return doSubmit().addScripts(ImmutableList.of(new ScriptText(scriptName, rules)));
+    }
+
+    @Override
+    public String deleteRules(String scriptName, String rules) throws Exception {
+        return doSubmit().deleteScripts(ImmutableList.of(new ScriptText(scriptName, rules)));
+    }
+
+    @Override
+    public String deleteAllRules() throws Exception {
+        return doSubmit().deleteAllRules();
+    }
+
+    @Override
+    public String listAllRules() throws Exception {
+        return doSubmit().listAllRules();
+    }
+
+    @Override
+    public Map<String, String> installedRules() throws Exception {
+        return RuleListing.installedRules(doSubmit().listAllRules());
+    }
+
+    @Override
+    public Map<String, String> ruleErrors(Collection<String> ruleNames) throws Exception {
+        // the listener only offers the full listing, so pick the status lines of the requested rules out of it
+        return RuleListing.ruleErrors(doSubmit().listAllRules(), ruleNames);
+    }
+
+    private Submit doSubmit() {
+        return new Submit(null, 0, null);
+    }
+}
@@ -0,0 +1,57 @@
+package org.javaprofile.bootman.byteman;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of profiled methods, keyed by profile and method, filled in by {@link ProfilingHelper}. Shared
+ * across class loaders the same way as {@link RuleMetrics}.
+ */
+public final class MethodLatencies {
+    private static final ConcurrentMap<String, AtomicLongArray> histograms = new ConcurrentHashMap<>();
+    private static volatile ConcurrentMap<String, AtomicLongArray> shared;
+
+    private MethodLatencies() {
+    }
+
+    /**
+     * Called reflectively on the system class loader copy. Use {@link #shared()} instead.
+     */
+    public static ConcurrentMap<String, AtomicLongArray> histograms() {
+        return histograms;
+    }
+
+    @SuppressWarnings("unchecked")
+    static ConcurrentMap<String, AtomicLongArray> shared() {
+        if (shared == null) {
+            try {
+                Class<?> systemCopy = ClassLoader.getSystemClassLoader().loadClass(MethodLatencies.class.getName());
+                shared = (ConcurrentMap<String, AtomicLongArray>) systemCopy.getMethod("histograms").invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                shared = histograms;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Histograms are only created here, never by the helper, so that a call still in flight when its profile is
+     * removed cannot bring the histogram back.
+     */
+    public static void create(String key) {
+        shared().putIfAbsent(key, LatencyHistogram.newCounts());
+    }
+
+    /**
+     * Returns a snapshot of the histogram recorded under the given key, or an empty one if nothing was recorded yet.
+     */
+    public static LatencyHistogram.Snapshot snapshot(String key) {
+        AtomicLongArray counts = shared().get(key);
+        return new LatencyHistogram(counts != null ? counts : LatencyHistogram.newCounts()).snapshot();
+    }
+
+    public static void remove(String key) {
+        shared().remove(key);
+    }
+}
@@ -0,0 +1,189 @@
+package org.javaprofile.bootman.byteman;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Generates the rules of a method latency profile: per profiled method one rule at entry and one each at normal and
+ * exceptional exit, all using {@link ProfilingHelper}. Keeps track of the running profiles and reports the latency
+ * percentiles recorded for them. Installing and deleting the rules is left to the caller.
+ */
+@Component
+public class MethodProfiler {
+    private static final Pattern PROFILE_NAME = Pattern.compile("[\\w.$\\-]+");
+    private static final Pattern CLASS_NAME = Pattern.compile("[\\w$]+(?:\\.[\\w$]+)*");
+    // a method name, or <init>, optionally followed by a parameter list like (String,int[])
+    private static final Pattern METHOD = Pattern.compile("(?:[\\w$]+|<init>)(?:\\([\\w.$\\[\\], ]*\\))?");
+    private static final String RULE_PREFIX = "bootman profile ";
+
+    private final Map<String, Profile> profiles = new LinkedHashMap<>();
+
+    /**
+     * Registers a new profile and creates its histograms. Use {@link Profile#getRuleScript()} to install it.
+     */
+    public synchronized Profile create(String name, String className, Collection<String> methods, boolean includeOverrides, boolean isInterface) {
+        String profileName = name == null || name.isEmpty() ? className : name;
+        if (!PROFILE_NAME.matcher(profileName).matches()) {
+            throw new IllegalArgumentException("invalid profile name " + profileName);
+        }
+        if (!CLASS_NAME.matcher(className).matches()) {
+            throw new IllegalArgumentException("invalid class name " + className);
+        }
+        if (RuleInstrumenter.isBootClass(className)) {
+            throw new IllegalArgumentException("cannot profile the JDK class " + className + " as it cannot see " + ProfilingHelper.class.getSimpleName());
+        }
+        Set<String> methodNames = methods.stream().map(String::trim).filter(method -> !method.isEmpty())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (methodNames.isEmpty()) {
+            throw new IllegalArgumentException("no methods to profile given");
+        }
+        for (String method : methodNames) {
+            if (!METHOD.matcher(method).matches()) {
+                throw new IllegalArgumentException("invalid method " + method);
+            }
+        }
+        if (profiles.containsKey(profileName)) {
+            throw new IllegalArgumentException("a profile named " + profileName + " is running already");
+        }
+        Profile profile = new Profile(profileName, className, methodNames, includeOverrides, isInterface);
+        profile.keys.values().forEach(MethodLatencies::create);
+        profiles.put(profileName, profile);
+        return profile;
+    }
+
+    public synchronized Profile get(String name) {
+        return profiles.get(name);
+    }
+
+    /**
+     * Forgets the profile and drops its histograms. Its rules have to be deleted beforehand.
+     */
+    public synchronized Profile remove(String name) {
+        Profile profile = profiles.remove(name);
+        if (profile != null) {
+            profile.keys.values().forEach(MethodLatencies::remove);
+        }
+        return profile;
+    }
+
+    /**
+     * Forgets all profiles, e.g. because all rules were deleted.
+     */
+    public synchronized void removeAll() {
+        new ArrayList<>(profiles.keySet()).forEach(this::remove);
+    }
+
+    public synchronized List<ProfileReport> reports() {
+        return profiles.values().stream().map(ProfileReport::new).collect(Collectors.toList());
+    }
+
+    public static class Profile {
+        private final String name;
+        private final String className;
+        private final boolean includeOverrides;
+        private final boolean isInterface;
+        private final Instant startedAt = Instant.now();
+        // histogram key by profiled method
+        private final Map<String, String> keys = new LinkedHashMap<>();
+        private final Set<String> ruleNames = new LinkedHashSet<>();
+        private final String ruleScript;
+
+        private Profile(String name, String className, Set<String> methods, boolean includeOverrides, boolean isInterface) {
+            this.name = name;
+            this.className = className;
+            this.includeOverrides = includeOverrides;
+            this.isInterface = isInterface;
+            StringBuilder script = new StringBuilder();
+            for (String method : methods) {
+                String key = name + ":" + method;
+                keys.put(method, key);
+                appendRule(script, method, "entry", "AT ENTRY", "profileEnter", key);
+                appendRule(script, method, "exit", "AT EXIT", "profileExit", key);
+                appendRule(script, method, "exception exit", "AT EXCEPTION EXIT", "profileExceptionExit", key);
+            }
+            this.ruleScript = script.toString();
+        }
+
+        private void appendRule(StringBuilder script, String method, String suffix, String location, String action, String key) {
+            String ruleName = RULE_PREFIX + name + " " + method + " " + suffix;
+            ruleNames.add(ruleName);
+            script.append("RULE ").append(ruleName).append('\n')
+                    .append(isInterface ? "INTERFACE " : "CLASS ").append(includeOverrides ? "^" : "").append(className).append('\n')
+                    .append("METHOD ").append(method).append('\n')
+                    .append("HELPER ").append(ProfilingHelper.class.getName()).append('\n')
+                    .append(location).append('\n')
+                    .append("IF true\n")
+                    .append("DO ").append(action).append("(\"").append(key).append("\")\n")
+                    .append("ENDRULE\n");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getRuleScript() {
+            return ruleScript;
+        }
+
+        public Set<String> getRuleNames() {
+            return ruleNames;
+        }
+
+        /**
+         * The script to hand to deleteRules to uninstall the profile.
+         */
+        public String getDeleteScript() {
+            return ruleNames.stream().map(ruleName -> "RULE " + ruleName + "\n").collect(Collectors.joining());
+        }
+    }
+
+    public static class ProfileReport {
+        private final String name;
+        private final String className;
+        private final boolean includeOverrides;
+        private final Instant startedAt;
+        private final Map<String, LatencyHistogram.Snapshot> methods = new LinkedHashMap<>();
+
+        private ProfileReport(Profile profile) {
+            this.name = profile.name;
+            this.className = profile.className;
+            this.includeOverrides = profile.includeOverrides;
+            this.startedAt = profile.startedAt;
+            profile.keys.forEach((method, key) -> methods.put(method, MethodLatencies.snapshot(key)));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public boolean isIncludeOverrides() {
+            return includeOverrides;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        /**
+         * Latency percentiles by profiled method. Overloads of a method, and with includeOverrides the overriding
+         * methods of subclasses, are recorded together.
+         */
+        public Map<String, LatencyHistogram.Snapshot> getMethods() {
+            return methods;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.javaprofile.bootman.byteman;
+
+import org.jboss.byteman.rule.Rule;
+import org.jboss.byteman.rule.helper.Helper;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Byteman helper of the rules generated by {@link MethodProfiler}. The entry rule pushes the start time onto a per
+ * thread stack, which copes with recursion and with profiled methods calling each other, and the exit rules pop it and
+ * record the latency. Unlike {@link BootmanHelper} it does not collect rule metrics, so that the profile measures the
+ * method and not the bookkeeping around it.
+ */
+public class ProfilingHelper extends Helper {
+    private static final ConcurrentMap<String, AtomicLongArray> HISTOGRAMS = MethodLatencies.shared();
+    private static final ThreadLocal<CallStack> CALL_STACK = ThreadLocal.withInitial(CallStack::new);
+
+    protected ProfilingHelper(Rule rule) {
+        super(rule);
+    }
+
+    public void profileEnter(String key) {
+        CALL_STACK.get().push(key, System.nanoTime());
+    }
+
+    public void profileExit(String key) {
+        exit(key, false);
+    }
+
+    public void profileExceptionExit(String key) {
+        exit(key, true);
+    }
+
+    private static void exit(String key, boolean exceptional) {
+        long now = System.nanoTime();
+        long start = CALL_STACK.get().pop(key);
+        AtomicLongArray counts = HISTOGRAMS.get(key);
+        if (start >= 0 && counts != null) {
+            LatencyHistogram.record(counts, now - start, exceptional);
+        }
+    }
+
+    private static final class CallStack {
+        private String[] keys = new String[16];
+        private long[] starts = new long[16];
+        private int depth;
+
+        void push(String key, long start) {
+            if (depth == keys.length) {
+                keys = Arrays.copyOf(keys, depth * 2);
+                starts = Arrays.copyOf(starts, depth * 2);
+            }
+            keys[depth] = key;
+            starts[depth] = start;
+            depth++;
+        }
+
+        /**
+         * Returns the start time pushed for the key, or -1 if there is none. That happens for calls which were already
+         * running when the profile was installed; they are not recorded. Frames above the key are left behind by calls
+         * whose exit rule was uninstalled while they were running, and are dropped.
+         */
+        long pop(String key) {
+            int frame = depth - 1;
+            while (frame >= 0 && !keys[frame].equals(key)) {
+                frame--;
+            }
+            if (frame < 0) {
+                return -1;
+            }
+            Arrays.fill(keys, frame, depth, null);
+            depth = frame;
+            return starts[frame];
+        }
+    }
+}
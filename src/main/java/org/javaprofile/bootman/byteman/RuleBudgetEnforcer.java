@@ -0,0 +1,259 @@
+package org.javaprofile.bootman.byteman;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Circuit breaker for injected rules. Rules can be given an overhead budget when they are added: a maximum average time
+ * per trigger, and/or a maximum time spent in the rule per second of wall clock time, summed over all threads, which
+ * approximates the CPU share the rule takes. A background task compares the {@link RuleMetrics} of every budgeted rule
+ * with its budget once per check interval. A rule which stays over its budget for several intervals in a row is
+ * deleted, and the event is kept so that it shows up in the rule listing.
+ */
+@Component
+public class RuleBudgetEnforcer {
+    private static final Logger logger = LoggerFactory.getLogger(RuleBudgetEnforcer.class);
+    private final AgentChannels agentChannels;
+    private final int breachWindows;
+    private final int maxEvents;
+    private final ScheduledExecutorService checker;
+    private final Map<String, BudgetedRule> budgetedRules = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedDeque<DisabledRule> disabledRules = new ConcurrentLinkedDeque<>();
+
+    public RuleBudgetEnforcer(AgentChannels agentChannels,
+                              @Value("${bootman.byteman.rule-budget.check-interval-seconds:5}") long checkIntervalSeconds,
+                              @Value("${bootman.byteman.rule-budget.breach-windows:3}") int breachWindows,
+                              @Value("${bootman.byteman.rule-budget.max-events:100}") int maxEvents) {
+        this.agentChannels = agentChannels;
+        this.breachWindows = breachWindows;
+        this.maxEvents = maxEvents;
+        this.checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bootman-rule-budget");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::check, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void register(Collection<String> ruleNames, RuleBudget budget) {
+        for (String ruleName : ruleNames) {
+            budgetedRules.put(ruleName, new BudgetedRule(ruleName, budget));
+        }
+        logger.info("enforcing budget {} for rules {}", budget, ruleNames);
+    }
+
+    public void unregister(Collection<String> ruleNames) {
+        budgetedRules.keySet().removeAll(ruleNames);
+    }
+
+    public void unregisterAll() {
+        budgetedRules.clear();
+    }
+
+    void check() {
+        for (BudgetedRule budgetedRule : budgetedRules.values()) {
+            try {
+                String breach = budgetedRule.check();
+                if (breach != null && budgetedRule.consecutiveBreaches >= breachWindows) {
+                    disable(budgetedRule, breach);
+                }
+            } catch (Exception ex) {
+                logger.warn("Ignoring exception encountered while checking the budget of rule " + budgetedRule.ruleName, ex);
+            }
+        }
+    }
+
+    private void disable(BudgetedRule budgetedRule, String breach) throws Exception {
+        String reason = String.format("%s for %d consecutive checks", breach, budgetedRule.consecutiveBreaches);
+        logger.warn("disabling rule {} as it is over its budget: {}", budgetedRule.ruleName, reason);
+        budgetedRules.remove(budgetedRule.ruleName);
+        agentChannels.current().deleteRules("ruleBudget", "RULE " + budgetedRule.ruleName);
+        disabledRules.addFirst(new DisabledRule(budgetedRule.ruleName, Instant.now(), reason));
+        while (disabledRules.size() > maxEvents) {
+            disabledRules.pollLast();
+        }
+    }
+
+    public List<BudgetStatus> budgets() {
+        return budgetedRules.values().stream().map(BudgetStatus::new).collect(Collectors.toList());
+    }
+
+    public List<DisabledRule> disabledRules() {
+        return new ArrayList<>(disabledRules);
+    }
+
+    /**
+     * Describes the rules disabled so far as comment lines, the way they are appended to the rule listing.
+     */
+    public String describeDisabledRules() {
+        return disabledRules.stream()
+                .map(disabled -> String.format("# %s rule %s was disabled by bootman: %s\n", disabled.getDisabledAt(), disabled.getRuleName(), disabled.getReason()))
+                .collect(Collectors.joining());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        checker.shutdownNow();
+    }
+
+    private static class BudgetedRule {
+        private final String ruleName;
+        private final RuleBudget budget;
+        private long lastTriggered;
+        private double lastOverheadMillis;
+        private long lastCheckNanos = System.nanoTime();
+        private volatile int consecutiveBreaches;
+        private volatile double lastMicrosPerTrigger;
+        private volatile double lastMillisPerSecond;
+
+        private BudgetedRule(String ruleName, RuleBudget budget) {
+            this.ruleName = ruleName;
+            this.budget = budget;
+            RuleMetrics.RuleStatistics statistics = RuleMetrics.statistics(ruleName);
+            if (statistics != null) {
+                // a rule added again under the same name starts from the counters it has got so far
+                lastTriggered = statistics.getTriggered();
+                lastOverheadMillis = statistics.getTotalOverheadMillis();
+            }
+        }
+
+        /**
+         * Measures the overhead since the last check. Returns a description of the breach, or null if the rule kept
+         * within its budget.
+         */
+        private String check() {
+            RuleMetrics.RuleStatistics statistics = RuleMetrics.statistics(ruleName);
+            long now = System.nanoTime();
+            long triggered = statistics != null ? statistics.getTriggered() : 0;
+            double overheadMillis = statistics != null ? statistics.getTotalOverheadMillis() : 0;
+            long triggers = triggered - lastTriggered;
+            double millis = overheadMillis - lastOverheadMillis;
+            double seconds = (now - lastCheckNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            lastTriggered = triggered;
+            lastOverheadMillis = overheadMillis;
+            lastCheckNanos = now;
+            lastMicrosPerTrigger = triggers > 0 ? millis * 1000 / triggers : 0;
+            lastMillisPerSecond = seconds > 0 ? millis / seconds : 0;
+
+            String breach = null;
+            if (budget.getMaxMicrosPerTrigger() > 0 && triggers > 0 && lastMicrosPerTrigger > budget.getMaxMicrosPerTrigger()) {
+                breach = String.format("took %.1f micros per trigger, budget is %.1f micros", lastMicrosPerTrigger, budget.getMaxMicrosPerTrigger());
+            } else if (budget.getMaxMillisPerSecond() > 0 && lastMillisPerSecond > budget.getMaxMillisPerSecond()) {
+                breach = String.format("took %.1f ms per second, budget is %.1f ms", lastMillisPerSecond, budget.getMaxMillisPerSecond());
+            }
+            consecutiveBreaches = breach != null ? consecutiveBreaches + 1 : 0;
+            return breach;
+        }
+    }
+
+    public static class RuleBudget {
+        private final double maxMicrosPerTrigger;
+        private final double maxMillisPerSecond;
+        private final double samplingRate;
+
+        public RuleBudget(double maxMicrosPerTrigger, double maxMillisPerSecond, double samplingRate) {
+            if (!(samplingRate > 0 && samplingRate <= 1)) {
+                throw new IllegalArgumentException("sampling rate must be greater than 0 and at most 1, but was " + samplingRate);
+            }
+            this.maxMicrosPerTrigger = maxMicrosPerTrigger;
+            this.maxMillisPerSecond = maxMillisPerSecond;
+            this.samplingRate = samplingRate;
+        }
+
+        public boolean isEnforced() {
+            return maxMicrosPerTrigger > 0 || maxMillisPerSecond > 0;
+        }
+
+        public double getMaxMicrosPerTrigger() {
+            return maxMicrosPerTrigger;
+        }
+
+        public double getMaxMillisPerSecond() {
+            return maxMillisPerSecond;
+        }
+
+        public double getSamplingRate() {
+            return samplingRate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[maxMicrosPerTrigger=%s, maxMillisPerSecond=%s, samplingRate=%s]", maxMicrosPerTrigger, maxMillisPerSecond, samplingRate);
+        }
+    }
+
+    public static class BudgetStatus {
+        private final String ruleName;
+        private final RuleBudget budget;
+        private final int consecutiveBreaches;
+        private final double lastMicrosPerTrigger;
+        private final double lastMillisPerSecond;
+
+        private BudgetStatus(BudgetedRule budgetedRule) {
+            this.ruleName = budgetedRule.ruleName;
+            this.budget = budgetedRule.budget;
+            this.consecutiveBreaches = budgetedRule.consecutiveBreaches;
+            this.lastMicrosPerTrigger = budgetedRule.lastMicrosPerTrigger;
+            this.lastMillisPerSecond = budgetedRule.lastMillisPerSecond;
+        }
+
+        public String getRuleName() {
+            return ruleName;
+        }
+
+        public RuleBudget getBudget() {
+            return budget;
+        }
+
+        public int getConsecutiveBreaches() {
+            return consecutiveBreaches;
+        }
+
+        public double getLastMicrosPerTrigger() {
+            return lastMicrosPerTrigger;
+        }
+
+        public double getLastMillisPerSecond() {
+            return lastMillisPerSecond;
+        }
+    }
+
+    public static class DisabledRule {
+        private final String ruleName;
+        private final Instant disabledAt;
+        private final String reason;
+
+        private DisabledRule(String ruleName, Instant disabledAt, String reason) {
+            this.ruleName = ruleName;
+            this.disabledAt = disabledAt;
+            this.reason = reason;
+        }
+
+        public String getRuleName() {
+            return ruleName;
+        }
+
+        public Instant getDisabledAt() {
+            return disabledAt;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.javaprofile.bootman.byteman;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites submitted rules so that {@link BootmanHelper} can measure them: the rule gets BootmanHelper as its helper,
+ * its condition is wrapped in bootmanConditionPassed(...) and bootmanRuleCompleted() is added as the last action.
+ * Rules are left as they are if they already declare a helper of their own, or if they target JDK classes, which are
+ * loaded by the bootstrap class loader and cannot see the bootman classes.
+ * <p>
+ * With a sampling rate below 1 the condition is preceded by bootmanSampled(rate), so that the condition and the body
+ * of the rule only run for that share of the triggers. Rules limited to debug requests are preceded by debugRequest(),
+ * so that they only run for requests tagged by {@link DebugRequestFilter}. Rules left as they are get neither, so
+ * callers asking for sampling or debug requests only have to check {@link InstrumentedScript#getSkippedRules()}.
+ */
+@Component
+public class RuleInstrumenter {
+    private static final Logger logger = LoggerFactory.getLogger(RuleInstrumenter.class);
+    private static final Pattern HELPER = Pattern.compile("^[ \\t]*HELPER[ \\t]", Pattern.MULTILINE);
+    private static final Pattern TARGET = Pattern.compile("^[ \\t]*(?:CLASS|INTERFACE)[ \\t]+\\^?[ \\t]*([\\w.$]+)", Pattern.MULTILINE);
+    private static final Pattern CONDITION = Pattern.compile("^[ \\t]*IF[ \\t]+", Pattern.MULTILINE);
+    private static final Pattern ACTIONS = Pattern.compile("^[ \\t]*DO(?:[ \\t]+|$)", Pattern.MULTILINE);
+    private static final Pattern ENDRULE = Pattern.compile("^[ \\t]*ENDRULE[ \\t]*$", Pattern.MULTILINE);
+    // nothing can be added after a RETURN or THROW
+    private static final Pattern FINAL_ACTION = Pattern.compile("(?:RETURN|THROW|return|throw)\\b");
+    private static final String[] BOOT_PACKAGES = {"java.", "javax.", "jdk.", "sun.", "com.sun."};
+
+    private final boolean enabled;
+
+    public RuleInstrumenter(@Value("${bootman.byteman.rule-metrics.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String instrument(String script) {
+        return instrument(script, 1, false).getScript();
+    }
+
+    public InstrumentedScript instrument(String script, double samplingRate, boolean debugRequestsOnly) {
+        Map<String, String> skippedRules = new LinkedHashMap<>();
+        if (!enabled) {
+            RuleScripts.ruleNames(script).forEach(ruleName -> skippedRules.put(ruleName, "bootman.byteman.rule-metrics.enabled is false"));
+            return new InstrumentedScript(script, skippedRules);
+        }
+        String instrumented = RuleScripts.rewrite(script,
+                (ruleName, rule) -> instrumentRule(ruleName, rule, samplingRate, debugRequestsOnly, skippedRules));
+        return new InstrumentedScript(instrumented, skippedRules);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private String instrumentRule(String ruleName, String rule, double samplingRate, boolean debugRequestsOnly,
+                                  Map<String, String> skippedRules) {
+        Matcher target = TARGET.matcher(rule);
+        if (HELPER.matcher(rule).find()) {
+            return skip(ruleName, rule, "declares a helper of its own", skippedRules);
+        }
+        if (!target.find()) {
+            return skip(ruleName, rule, "has no CLASS or INTERFACE line", skippedRules);
+        }
+        if (isBootClass(target.group(1))) {
+            return skip(ruleName, rule, "targets the JDK class " + target.group(1) + ", which cannot see the bootman helper", skippedRules);
+        }
+        Matcher condition = CONDITION.matcher(rule);
+        Matcher actions = ACTIONS.matcher(rule);
+        Matcher endRule = ENDRULE.matcher(rule);
+        if (!condition.find() || !actions.find(condition.end()) || !endRule.find(actions.end())) {
+            return skip(ruleName, rule, "has IF and DO clauses which could not be located", skippedRules);
+        }
+        String completedActions = completeActions(rule.substring(actions.end(), endRule.start()).trim());
+        if (completedActions == null) {
+            return skip(ruleName, rule, "has a string or character literal in its actions which is not closed", skippedRules);
+        }
+        String header = rule.substring(0, condition.start());
+        int firstLineEnd = header.indexOf('\n');
+        return header.substring(0, firstLineEnd + 1)
+                + "HELPER " + BootmanHelper.class.getName() + "\n"
+                + header.substring(firstLineEnd + 1)
+                + "IF " + (debugRequestsOnly ? "debugRequest() AND " : "") + sampling(samplingRate) + "bootmanConditionPassed(" + rule.substring(condition.end(), actions.start()).trim() + ")\n"
+                + "DO " + completedActions + "\n"
+                + "ENDRULE";
+    }
+
+    private static String skip(String ruleName, String rule, String reason, Map<String, String> skippedRules) {
+        logger.info("not collecting metrics for rule {} as it {}", ruleName, reason);
+        skippedRules.put(ruleName, reason);
+        return rule;
+    }
+
+    private static String sampling(double samplingRate) {
+        // byteman evaluates AND lazily, so neither the condition nor the body run for triggers which are not sampled
+        return samplingRate < 1 ? "bootmanSampled(" + BigDecimal.valueOf(samplingRate).toPlainString() + ") AND " : "";
+    }
+
+    /**
+     * Adds bootmanRuleCompleted() as the last action, or in front of a final RETURN or THROW. Returns null if the last
+     * action cannot be told apart.
+     */
+    private static String completeActions(String actions) {
+        String trimmed = actions.endsWith(";") ? actions.substring(0, actions.length() - 1).trim() : actions;
+        if (trimmed.equalsIgnoreCase("NOTHING")) {
+            return "bootmanRuleCompleted()";
+        }
+        int lastAction = lastActionStart(trimmed);
+        if (lastAction < 0) {
+            return null;
+        }
+        while (lastAction < trimmed.length() && Character.isWhitespace(trimmed.charAt(lastAction))) {
+            lastAction++;
+        }
+        if (FINAL_ACTION.matcher(trimmed).region(lastAction, trimmed.length()).lookingAt()) {
+            return trimmed.substring(0, lastAction) + "bootmanRuleCompleted();\n" + trimmed.substring(lastAction);
+        }
+        return trimmed + ";\nbootmanRuleCompleted()";
+    }
+
+    /**
+     * Returns where the last action starts, i.e. after the last ; outside string and character literals, or -1 if a
+     * literal is not closed.
+     */
+    private static int lastActionStart(String actions) {
+        int start = 0;
+        char quote = 0;
+        for (int i = 0; i < actions.length(); i++) {
+            char c = actions.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == ';') {
+                start = i + 1;
+            }
+        }
+        return quote == 0 ? start : -1;
+    }
+
+    /**
+     * Whether the class is loaded by the bootstrap class loader, which cannot see helpers on the application class path.
+     */
+    static boolean isBootClass(String className) {
+        for (String bootPackage : BOOT_PACKAGES) {
+            if (className.startsWith(bootPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class InstrumentedScript {
+        private final String script;
+        private final Map<String, String> skippedRules;
+
+        private InstrumentedScript(String script, Map<String, String> skippedRules) {
+            this.script = script;
+            this.skippedRules = Collections.unmodifiableMap(skippedRules);
+        }
+
+        public String getScript() {
+            return script;
+        }
+
+        /**
+         * The rules which were left as they are, with the reason why. They are neither measured, sampled nor limited
+         * to debug requests.
+         */
+        public Map<String, String> getSkippedRules() {
+            return skippedRules;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.javaprofile.bootman.byteman;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the rule listing the agent renders for listAllRules. Every rule is listed with its text from RULE to ENDRULE,
+ * followed by a status block describing where it was injected and whether that worked.
+ */
+final class RuleListing {
+
+    private RuleListing() {
+    }
+
+    static Map<String, String> installedRules(String listing) {
+        Map<String, String> rules = new LinkedHashMap<>();
+        forEachListedRule(listing, (name, text, status) -> rules.put(name, text));
+        return rules;
+    }
+
+    /**
+     * Picks the status lines of the given rules out of the listing, for the rules which threw or failed to compile.
+     */
+    static Map<String, String> ruleErrors(String listing, Collection<String> ruleNames) {
+        Map<String, String> errors = new LinkedHashMap<>();
+        forEachListedRule(listing, (name, text, status) -> {
+            if (ruleNames.contains(name) && (status.contains("threw ") || status.contains("failed to compile"))) {
+                errors.put(name, status.trim());
+            }
+        });
+        return errors;
+    }
+
+    private static void forEachListedRule(String listing, ListedRuleConsumer consumer) {
+        String name = null;
+        StringBuilder text = new StringBuilder();
+        StringBuilder status = new StringBuilder();
+        boolean inRule = false;
+        for (String line : listing.split("\n")) {
+            if (!inRule && line.startsWith("RULE ")) {
+                if (name != null) {
+                    consumer.accept(name, text.toString().trim(), status.toString());
+                }
+                name = line.substring("RULE ".length()).trim();
+                text.setLength(0);
+                status.setLength(0);
+                inRule = true;
+            }
+            if (inRule) {
+                text.append(line).append('\n');
+                inRule = !line.trim().equals("ENDRULE");
+            } else if (name != null && !line.startsWith("# File ")) {
+                status.append(line).append('\n');
+            }
+        }
+        if (name != null) {
+            consumer.accept(name, text.toString().trim(), status.toString());
+        }
+    }
+
+    private interface ListedRuleConsumer {
+        void accept(String name, String text, String status);
+    }
+}
@@ -0,0 +1,145 @@
+package org.javaprofile.bootman.byteman;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Per rule counters filled in by {@link BootmanHelper} on every trigger. Counters are striped {@link LongAdder}s, so
+ * rules firing on many request threads at once do not contend on a single cache line.
+ * <p>
+ * The helper is loaded through the class loader of the class a rule is injected into, so there may be more than one
+ * copy of this class around (e.g. with spring devtools' restart class loader). All copies share the counters of the
+ * copy loaded by the system class loader, which are held in JDK types only for that reason.
+ */
+public final class RuleMetrics {
+    static final int TRIGGERED = 0;
+    static final int CONDITION_PASSED = 1;
+    static final int CONDITION_NANOS = 2;
+    static final int COMPLETED = 3;
+    static final int BODY_NANOS = 4;
+    private static final int COUNTER_COUNT = 5;
+
+    private static final ConcurrentMap<String, LongAdder[]> counters = new ConcurrentHashMap<>();
+    private static volatile ConcurrentMap<String, LongAdder[]> shared;
+
+    private RuleMetrics() {
+    }
+
+    /**
+     * Called reflectively on the system class loader copy. Use {@link #shared()} instead.
+     */
+    public static ConcurrentMap<String, LongAdder[]> counters() {
+        return counters;
+    }
+
+    @SuppressWarnings("unchecked")
+    static ConcurrentMap<String, LongAdder[]> shared() {
+        if (shared == null) {
+            try {
+                Class<?> systemCopy = ClassLoader.getSystemClassLoader().loadClass(RuleMetrics.class.getName());
+                shared = (ConcurrentMap<String, LongAdder[]>) systemCopy.getMethod("counters").invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                shared = counters;
+            }
+        }
+        return shared;
+    }
+
+    static LongAdder[] forRule(ConcurrentMap<String, LongAdder[]> counters, String ruleName) {
+        // plain get first. computeIfAbsent locks even when the rule is already there on Java 8.
+        LongAdder[] ruleCounters = counters.get(ruleName);
+        if (ruleCounters != null) {
+            return ruleCounters;
+        }
+        return counters.computeIfAbsent(ruleName, name -> {
+            LongAdder[] adders = new LongAdder[COUNTER_COUNT];
+            for (int i = 0; i < adders.length; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        });
+    }
+
+    public static List<RuleStatistics> snapshot() {
+        return shared().entrySet().stream()
+                .map(entry -> new RuleStatistics(entry.getKey(), entry.getValue()))
+                .sorted(Comparator.comparing(RuleStatistics::getTotalOverheadMillis).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the statistics of the given rule, or null if it has not been triggered yet.
+     */
+    public static RuleStatistics statistics(String ruleName) {
+        LongAdder[] ruleCounters = shared().get(ruleName);
+        return ruleCounters != null ? new RuleStatistics(ruleName, ruleCounters) : null;
+    }
+
+    public static void reset() {
+        shared().clear();
+    }
+
+    public static class RuleStatistics {
+        private final String ruleName;
+        private final long triggered;
+        private final long conditionPassed;
+        private final long completed;
+        private final double averageConditionMicros;
+        private final double averageBodyMicros;
+        private final double totalOverheadMillis;
+
+        private RuleStatistics(String ruleName, LongAdder[] counters) {
+            this.ruleName = ruleName;
+            this.triggered = counters[TRIGGERED].sum();
+            this.conditionPassed = counters[CONDITION_PASSED].sum();
+            this.completed = counters[COMPLETED].sum();
+            long conditionNanos = counters[CONDITION_NANOS].sum();
+            long bodyNanos = counters[BODY_NANOS].sum();
+            this.averageConditionMicros = triggered == 0 ? 0 : conditionNanos / 1000.0 / triggered;
+            this.averageBodyMicros = completed == 0 ? 0 : bodyNanos / 1000.0 / completed;
+            this.totalOverheadMillis = (double) (conditionNanos + bodyNanos) / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public String getRuleName() {
+            return ruleName;
+        }
+
+        /**
+         * How often the rule was triggered, i.e. how often its trigger point was reached.
+         */
+        public long getTriggered() {
+            return triggered;
+        }
+
+        public long getConditionPassed() {
+            return conditionPassed;
+        }
+
+        /**
+         * How often the rule body ran to its end. Bodies which throw, or return early, are not counted.
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * Average time from the trigger until the condition was evaluated, including the BIND clause.
+         */
+        public double getAverageConditionMicros() {
+            return averageConditionMicros;
+        }
+
+        public double getAverageBodyMicros() {
+            return averageBodyMicros;
+        }
+
+        public double getTotalOverheadMillis() {
+            return totalOverheadMillis;
+        }
+    }
+}
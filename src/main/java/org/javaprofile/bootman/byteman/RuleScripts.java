@@ -0,0 +1,67 @@
+package org.javaprofile.bootman.byteman;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Text level helpers for Byteman rule scripts. They only look for the RULE and ENDRULE lines. The rules themselves
+ * are validated by the agent.
+ */
+public final class RuleScripts {
+    private static final Pattern RULE_NAME = Pattern.compile("^[ \\t]*RULE[ \\t]+(.+?)[ \\t]*$", Pattern.MULTILINE);
+    private static final Pattern END_RULE = Pattern.compile("^[ \\t]*ENDRULE[ \\t]*$", Pattern.MULTILINE);
+
+    private RuleScripts() {
+    }
+
+    /**
+     * Splits a rule script into its rules, by rule name.
+     */
+    public static Map<String, String> split(String script) {
+        Map<String, String> rules = new LinkedHashMap<>();
+        rewrite(script, (name, text) -> {
+            if (rules.put(name, text) != null) {
+                throw new IllegalArgumentException("rule script contains more than one rule named " + name);
+            }
+            return text;
+        });
+        return rules;
+    }
+
+    public static Set<String> ruleNames(String script) {
+        Set<String> names = new LinkedHashSet<>();
+        Matcher matcher = RULE_NAME.matcher(script);
+        while (matcher.find()) {
+            names.add(matcher.group(1));
+        }
+        return names;
+    }
+
+    /**
+     * Replaces every rule of the script, from RULE to ENDRULE, with what the given function returns for it.
+     * Anything in between the rules, like comments, is kept as is.
+     */
+    public static String rewrite(String script, RuleRewriter rewriter) {
+        StringBuilder result = new StringBuilder(script.length());
+        Matcher ruleName = RULE_NAME.matcher(script);
+        Matcher endRule = END_RULE.matcher(script);
+        int position = 0;
+        while (ruleName.find(position)) {
+            if (!endRule.find(ruleName.end())) {
+                throw new IllegalArgumentException("missing ENDRULE for rule " + ruleName.group(1));
+            }
+            result.append(script, position, ruleName.start());
+            result.append(rewriter.rewrite(ruleName.group(1), script.substring(ruleName.start(), endRule.end()).trim()));
+            position = endRule.end();
+        }
+        return result.append(script.substring(position)).toString();
+    }
+
+    public interface RuleRewriter {
+        String rewrite(String ruleName, String ruleText);
+    }
+}
@@ -0,0 +1,223 @@
+package org.javaprofile.bootman.byteman;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Deploys a complete, versioned set of rules in one go. The desired set is compared with the rules deployed by the
+ * previous version and with what the agent actually has installed: only added and changed rules are handed to the
+ * agent, all of them in a single submission, so that every affected class is retransformed only once. Afterwards only
+ * the submitted rules are checked for errors. If any of them failed, the deployment is rolled back to the previous
+ * version. Rules installed through addRules under a name which is not part of the rule set are left alone.
+ */
+@Component
+public class RuleSetDeployer {
+    private static final Logger logger = LoggerFactory.getLogger(RuleSetDeployer.class);
+
+    private final RuleInstrumenter ruleInstrumenter;
+    private long version;
+    private Instant deployedAt;
+    private Map<String, String> deployedRules = ImmutableMap.of();
+
+    public RuleSetDeployer(RuleInstrumenter ruleInstrumenter) {
+        this.ruleInstrumenter = ruleInstrumenter;
+    }
+
+    /**
+     * Deploys the given rule script as the new rule set. If expectedVersion is not null, the deployment is refused
+     * unless it matches the current version, so that two operators cannot overwrite each other's rule sets unnoticed.
+     */
+    public synchronized RuleSetDeployment deploy(AgentChannel channel, String ruleSet, Long expectedVersion) throws Exception {
+        if (expectedVersion != null && expectedVersion != version) {
+            throw new IllegalStateException(String.format("rule set is at version %d, not at the expected version %d", version, expectedVersion));
+        }
+        Map<String, String> desired = parse(ruleSet);
+        Map<String, String> installed = channel.installedRules();
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        List<String> unchanged = new ArrayList<>();
+        desired.forEach((name, text) -> {
+            if (!installed.containsKey(name)) {
+                added.add(name);
+            } else if (text.equals(deployedRules.get(name))) {
+                unchanged.add(name);
+            } else {
+                changed.add(name);
+            }
+        });
+        List<String> removed = deployedRules.keySet().stream()
+                .filter(name -> !desired.containsKey(name) && installed.containsKey(name))
+                .collect(Collectors.toList());
+        RuleSetDeployment deployment = new RuleSetDeployment(added, changed, removed, unchanged);
+        if (added.isEmpty() && changed.isEmpty() && removed.isEmpty()) {
+            logger.info("rule set is already deployed as version {}. Nothing to do.", version);
+            deployment.complete(version, false, "rule set is already deployed", ImmutableMap.of());
+            return deployment;
+        }
+
+        List<String> submitted = ImmutableList.<String>builder().addAll(added).addAll(changed).build();
+        if (!submitted.isEmpty()) {
+            Map<String, String> errors;
+            String output;
+            boolean failed = false;
+            try {
+                output = channel.addRules("ruleSet-v" + (version + 1), ruleInstrumenter.instrument(join(submitted, desired)));
+                errors = channel.ruleErrors(submitted);
+            } catch (Exception ex) {
+                //e.g. a rule which cannot be parsed. The agent rejects the whole submission in that case.
+                logger.error("Error encountered while deploying rule set version " + (version + 1), ex);
+                output = String.valueOf(ex.getCause() != null ? ex.getCause() : ex);
+                errors = ImmutableMap.of();
+                failed = true;
+            }
+            if (failed || !errors.isEmpty()) {
+                logger.warn("rolling back rule set version {} due to errors: {}", version + 1, errors);
+                rollback(channel, added, changed, installed);
+                deployment.complete(version, true, output, errors);
+                return deployment;
+            }
+        }
+        if (!removed.isEmpty()) {
+            channel.deleteRules("ruleSet-v" + (version + 1), removed.stream().map(name -> "RULE " + name).collect(Collectors.joining("\n")));
+        }
+        version++;
+        deployedAt = Instant.now();
+        deployedRules = ImmutableMap.copyOf(desired);
+        logger.info("deployed rule set version {}. added: {}, changed: {}, removed: {}, unchanged: {}",
+                version, added.size(), changed.size(), removed.size(), unchanged.size());
+        deployment.complete(version, false, "deployed rule set version " + version, ImmutableMap.of());
+        return deployment;
+    }
+
+    private void rollback(AgentChannel channel, List<String> added, List<String> changed, Map<String, String> installed) {
+        //changed rules go back to the text the agent had before, newly added ones are dropped again
+        try {
+            if (!changed.isEmpty()) {
+                channel.addRules("ruleSet-v" + version, join(changed, installed));
+            }
+            if (!added.isEmpty()) {
+                channel.deleteRules("ruleSet-v" + version, added.stream().map(name -> "RULE " + name).collect(Collectors.joining("\n")));
+            }
+        } catch (Exception ex) {
+            logger.error("Error encountered while rolling back to rule set version " + version, ex);
+        }
+    }
+
+    /**
+     * Forgets the deployed text of the rules in the given script, e.g. because they were replaced through addRules,
+     * so that the next deployment of the rule set installs them again.
+     */
+    public synchronized void forget(String rules) {
+        Map<String, String> remaining = new LinkedHashMap<>(deployedRules);
+        remaining.keySet().removeAll(RuleScripts.ruleNames(rules));
+        deployedRules = ImmutableMap.copyOf(remaining);
+    }
+
+    public synchronized RuleSet current() {
+        return new RuleSet(version, deployedAt, deployedRules);
+    }
+
+    private static Map<String, String> parse(String ruleSet) {
+        Map<String, String> rules = RuleScripts.split(ruleSet);
+        if (rules.isEmpty()) {
+            throw new IllegalArgumentException("rule set does not contain any rule");
+        }
+        return rules;
+    }
+
+    private static String join(Collection<String> names, Map<String, String> rules) {
+        return names.stream().map(rules::get).collect(Collectors.joining("\n\n", "", "\n"));
+    }
+
+    public static class RuleSetDeployment {
+        private final List<String> added;
+        private final List<String> changed;
+        private final List<String> removed;
+        private final List<String> unchanged;
+        private long version;
+        private boolean rolledBack;
+        private String message;
+        private Map<String, String> errors;
+
+        private RuleSetDeployment(List<String> added, List<String> changed, List<String> removed, List<String> unchanged) {
+            this.added = added;
+            this.changed = changed;
+            this.removed = removed;
+            this.unchanged = unchanged;
+        }
+
+        private void complete(long version, boolean rolledBack, String message, Map<String, String> errors) {
+            this.version = version;
+            this.rolledBack = rolledBack;
+            this.message = message;
+            this.errors = errors;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public boolean isRolledBack() {
+            return rolledBack;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public Map<String, String> getErrors() {
+            return errors;
+        }
+
+        public List<String> getAdded() {
+            return added;
+        }
+
+        public List<String> getChanged() {
+            return changed;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public List<String> getUnchanged() {
+            return unchanged;
+        }
+    }
+
+    public static class RuleSet {
+        private final long version;
+        private final Instant deployedAt;
+        private final Map<String, String> rules;
+
+        public RuleSet(long version, Instant deployedAt, Map<String, String> rules) {
+            this.version = version;
+            this.deployedAt = deployedAt;
+            this.rules = rules;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public Instant getDeployedAt() {
+            return deployedAt;
+        }
+
+        public Map<String, String> getRules() {
+            return rules;
+        }
+    }
+}
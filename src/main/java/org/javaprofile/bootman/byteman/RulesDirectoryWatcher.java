@@ -0,0 +1,410 @@
+package org.javaprofile.bootman.byteman;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the agent in line with the .btm files of a rules directory, so that a restarted node gets its rules back
+ * without anybody resubmitting them. Every file is pushed as a script of its own. After the first load a
+ * {@link WatchService} reports changed files. Bursts of events are collected until the directory has been quiet for
+ * debounce-millis, then only those files are synced: a file with the same content hash as last time is skipped as long
+ * as the agent still has all its rules, and of a changed file only the rules which were added, changed or are missing
+ * from the agent are handed to it, while rules removed from it are deleted. That keeps retransformations down to the
+ * classes which are really affected, and brings back rules deleted through deleteRules or for exceeding a budget.
+ * <p>
+ * A rule name belongs to the file which loaded it first. The same name in another file is reported as an error of that
+ * file and not loaded, so that neither file can replace or delete the rule of the other.
+ * <p>
+ * Nothing is pushed while the agent is not active. Once it is activated again, {@link #resync()} brings it up to date.
+ */
+@Component
+public class RulesDirectoryWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(RulesDirectoryWatcher.class);
+    private static final String RULE_FILE_SUFFIX = ".btm";
+    private final Path directory;
+    private final boolean activateAgent;
+    private final boolean watch;
+    private final long debounceMillis;
+    private final AgentStateHolder agentState;
+    private final AgentChannels agentChannels;
+    private final RuleInstrumenter ruleInstrumenter;
+    private final RuleSetDeployer ruleSetDeployer;
+    private final RuleBudgetEnforcer ruleBudgetEnforcer;
+    // guarded by this. What the agent got from every file.
+    private final Map<String, LoadedFile> loadedFiles = new LinkedHashMap<>();
+    private long syncs;
+    private long skippedUnchanged;
+    private WatchService watchService;
+    private Thread watcher;
+
+    public RulesDirectoryWatcher(@Value("${bootman.byteman.rules-directory.path:}") String directory,
+                                 @Value("${bootman.byteman.rules-directory.activate-agent:false}") boolean activateAgent,
+                                 @Value("${bootman.byteman.rules-directory.watch:true}") boolean watch,
+                                 @Value("${bootman.byteman.rules-directory.debounce-millis:500}") long debounceMillis,
+                                 AgentStateHolder agentState, AgentChannels agentChannels, RuleInstrumenter ruleInstrumenter,
+                                 RuleSetDeployer ruleSetDeployer, RuleBudgetEnforcer ruleBudgetEnforcer) {
+        this.directory = directory.isEmpty() ? null : Paths.get(directory).toAbsolutePath().normalize();
+        this.activateAgent = activateAgent;
+        this.watch = watch;
+        this.debounceMillis = debounceMillis;
+        this.agentState = agentState;
+        this.agentChannels = agentChannels;
+        this.ruleInstrumenter = ruleInstrumenter;
+        this.ruleSetDeployer = ruleSetDeployer;
+        this.ruleBudgetEnforcer = ruleBudgetEnforcer;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Whether the agent should be activated at startup to load the rules.
+     */
+    public boolean isActivateAgent() {
+        return isEnabled() && activateAgent;
+    }
+
+    /**
+     * Loads all rule files and starts watching the directory.
+     */
+    public synchronized void start() throws IOException {
+        if (!isEnabled() || watcher != null) {
+            return;
+        }
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("bootman.byteman.rules-directory.path " + directory + " is not a directory");
+        }
+        sync(ruleFiles());
+        if (watch) {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            watcher = new Thread(this::watch, "bootman-rules-directory-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+            logger.info("watching rules directory {}", directory);
+        }
+    }
+
+    /**
+     * Pushes the rules of every rule file which changed since it was loaded or which the agent no longer has installed.
+     */
+    public synchronized void resync() throws IOException {
+        if (isEnabled()) {
+            sync(ruleFiles());
+        }
+    }
+
+    /**
+     * Forgets what was pushed, e.g. because all rules were deleted. The next sync pushes the files again.
+     */
+    public synchronized void reset() {
+        loadedFiles.clear();
+    }
+
+    private void watch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                // editors write a file in several steps. Wait for the directory to be quiet, but not forever.
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis * 10);
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            Path file = directory.resolve((Path) event.context());
+                            if (isRuleFile(file)) {
+                                changed.add(file);
+                            }
+                        }
+                    }
+                    if (!key.reset()) {
+                        logger.warn("rules directory {} is no longer accessible. Stopped watching it.", directory);
+                        return;
+                    }
+                    key = System.nanoTime() < deadline ? watchService.poll(debounceMillis, TimeUnit.MILLISECONDS) : null;
+                }
+                if (overflow || !changed.isEmpty()) {
+                    synchronized (this) {
+                        sync(overflow ? ruleFiles() : changed);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // shutting down
+        } catch (Exception ex) {
+            logger.error("Error encountered while watching rules directory " + directory + ". Stopped watching it.", ex);
+        }
+    }
+
+    /**
+     * Returns the rule files in the directory together with those loaded before, which may have been deleted since.
+     */
+    private Set<Path> ruleFiles() throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + RULE_FILE_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        loadedFiles.keySet().forEach(name -> files.add(directory.resolve(name)));
+        return files;
+    }
+
+    private void sync(Collection<Path> files) {
+        if (!agentState.isActive()) {
+            logger.info("byteman agent is not active. Not loading {} rule files from {} for now.", files.size(), directory);
+            return;
+        }
+        Set<String> installed;
+        try {
+            installed = agentChannels.current().installedRules().keySet();
+        } catch (Exception ex) {
+            logger.error("Error encountered while listing the installed rules. Not loading rule files from " + directory, ex);
+            return;
+        }
+        syncs++;
+        // files with duplicates come last, so that they can pick up the rules their owners just dropped
+        Set<Path> withDuplicates = new LinkedHashSet<>();
+        loadedFiles.forEach((name, loaded) -> {
+            if (!loaded.duplicates.isEmpty()) {
+                withDuplicates.add(directory.resolve(name));
+            }
+        });
+        Set<Path> synced = new LinkedHashSet<>(files);
+        synced.removeAll(withDuplicates);
+        synced.addAll(withDuplicates);
+        for (Path file : synced) {
+            try {
+                sync(file, installed);
+            } catch (Exception ex) {
+                logger.error("Error encountered while loading rule file " + file, ex);
+            }
+        }
+    }
+
+    private void sync(Path file, Set<String> installed) throws Exception {
+        String name = file.getFileName().toString();
+        LoadedFile loaded = loadedFiles.get(name);
+        Map<String, String> previousRules = loaded != null ? loaded.rules : ImmutableMap.of();
+        AgentChannel channel = agentChannels.current();
+        if (!Files.isRegularFile(file)) {
+            if (!previousRules.isEmpty()) {
+                logger.info("rule file {} is gone. Deleting its rules {}", name, previousRules.keySet());
+                ruleBudgetEnforcer.unregister(previousRules.keySet());
+                channel.deleteRules(name, ruleLines(previousRules.keySet()));
+            }
+            loadedFiles.remove(name);
+            return;
+        }
+        byte[] content = Files.readAllBytes(file);
+        String hash = Hashing.sha256().hashBytes(content).toString();
+        if (loaded != null && hash.equals(loaded.hash) && loaded.duplicates.isEmpty() && installed.containsAll(previousRules.keySet())) {
+            skippedUnchanged++;
+            return;
+        }
+        Map<String, String> rules = new LinkedHashMap<>(RuleScripts.split(new String(content, StandardCharsets.UTF_8)));
+        Map<String, String> errors = new LinkedHashMap<>();
+        for (String rule : rules.keySet()) {
+            String owner = owner(rule, name);
+            if (owner != null) {
+                logger.warn("not loading rule {} of file {} as it is defined in {} already", rule, name, owner);
+                errors.put(rule, "defined in " + owner + " already");
+            }
+        }
+        Set<String> duplicates = new LinkedHashSet<>(errors.keySet());
+        rules.keySet().removeAll(duplicates);
+        List<String> submitted = rules.keySet().stream()
+                .filter(rule -> !rules.get(rule).equals(previousRules.get(rule)) || !installed.contains(rule))
+                .collect(Collectors.toList());
+        List<String> removed = previousRules.keySet().stream()
+                .filter(rule -> !rules.containsKey(rule))
+                .collect(Collectors.toList());
+        if (!submitted.isEmpty()) {
+            String script = submitted.stream().map(rules::get).collect(Collectors.joining("\n\n", "", "\n"));
+            try {
+                channel.addRules(name, ruleInstrumenter.instrument(script));
+            } catch (Exception ex) {
+                //the agent rejects the whole submission, e.g. for a rule which cannot be parsed. It keeps the previous rules.
+                logger.error("Error encountered while loading rule file " + name, ex);
+                errors.put(name, String.valueOf(ex.getCause() != null ? ex.getCause() : ex));
+                loadedFiles.put(name, new LoadedFile(hash, previousRules, errors, duplicates));
+                return;
+            }
+            errors.putAll(channel.ruleErrors(submitted));
+            //rules loaded from the directory replace what addRules or a rule set installed under the same names
+            ruleBudgetEnforcer.unregister(submitted);
+            ruleSetDeployer.forget(script);
+        }
+        if (!removed.isEmpty()) {
+            ruleBudgetEnforcer.unregister(removed);
+            channel.deleteRules(name, ruleLines(removed));
+        }
+        loadedFiles.put(name, new LoadedFile(hash, rules, errors, duplicates));
+        logger.info("loaded rule file {}. submitted: {}, removed: {}, unchanged: {}{}", name, submitted, removed,
+                rules.size() - submitted.size(), errors.isEmpty() ? "" : ", errors: " + errors);
+    }
+
+    /**
+     * Returns the other loaded file which has the rule, or null.
+     */
+    private String owner(String rule, String fileName) {
+        for (Map.Entry<String, LoadedFile> entry : loadedFiles.entrySet()) {
+            if (!entry.getKey().equals(fileName) && entry.getValue().rules.containsKey(rule)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static String ruleLines(Collection<String> ruleNames) {
+        return ruleNames.stream().map(rule -> "RULE " + rule).collect(Collectors.joining("\n"));
+    }
+
+    private static boolean isRuleFile(Path file) {
+        return file.getFileName().toString().endsWith(RULE_FILE_SUFFIX);
+    }
+
+    public synchronized DirectoryStatus status() {
+        List<FileStatus> files = new ArrayList<>();
+        loadedFiles.forEach((name, loaded) -> files.add(new FileStatus(name, loaded)));
+        return new DirectoryStatus(directory != null ? directory.toString() : null, watcher != null && watcher.isAlive(),
+                syncs, skippedUnchanged, files);
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() throws IOException {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private static class LoadedFile {
+        private final String hash;
+        private final Map<String, String> rules;
+        private final Map<String, String> errors;
+        // rules of the file which another file loaded first
+        private final Set<String> duplicates;
+        private final Instant loadedAt = Instant.now();
+
+        private LoadedFile(String hash, Map<String, String> rules, Map<String, String> errors, Set<String> duplicates) {
+            this.hash = hash;
+            this.rules = ImmutableMap.copyOf(rules);
+            this.errors = ImmutableMap.copyOf(errors);
+            this.duplicates = duplicates;
+        }
+    }
+
+    public static class FileStatus {
+        private final String name;
+        private final String hash;
+        private final List<String> rules;
+        private final Map<String, String> errors;
+        private final Instant loadedAt;
+
+        private FileStatus(String name, LoadedFile loaded) {
+            this.name = name;
+            this.hash = loaded.hash;
+            this.rules = ImmutableList.copyOf(loaded.rules.keySet());
+            this.errors = loaded.errors;
+            this.loadedAt = loaded.loadedAt;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public List<String> getRules() {
+            return rules;
+        }
+
+        /**
+         * Errors of the last load by rule name, including rules defined in another file already, or by file name if the
+         * agent rejected the whole file.
+         */
+        public Map<String, String> getErrors() {
+            return errors;
+        }
+
+        public Instant getLoadedAt() {
+            return loadedAt;
+        }
+    }
+
+    public static class DirectoryStatus {
+        private final String directory;
+        private final boolean watching;
+        private final long syncs;
+        private final long skippedUnchanged;
+        private final List<FileStatus> files;
+
+        private DirectoryStatus(String directory, boolean watching, long syncs, long skippedUnchanged, List<FileStatus> files) {
+            this.directory = directory;
+            this.watching = watching;
+            this.syncs = syncs;
+            this.skippedUnchanged = skippedUnchanged;
+            this.files = files;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public boolean isWatching() {
+            return watching;
+        }
+
+        public long getSyncs() {
+            return syncs;
+        }
+
+        /**
+         * Files which were reported as changed but had the same content as when they were loaded last.
+         */
+        public long getSkippedUnchanged() {
+            return skippedUnchanged;
+        }
+
+        public List<FileStatus> getFiles() {
+            return files;
+        }
+    }
+}
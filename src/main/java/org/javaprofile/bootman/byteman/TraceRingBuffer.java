@@ -0,0 +1,133 @@
+package org.javaprofile.bootman.byteman;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, lock-free, multi-producer/single-consumer ring buffer for rule trace output. All slots are allocated up
+ * front as parallel arrays. A producer claims a sequence number with a CAS, fills in the slot and publishes it; when the
+ * consumer has fallen a full buffer behind, the entry is dropped and counted instead of waiting, so tracing never
+ * blocks the instrumented thread.
+ * <p>
+ * Like {@link RuleMetrics}, every copy of this class shares the state of the copy loaded by the system class loader.
+ * The state is therefore kept in JDK types only.
+ */
+public final class TraceRingBuffer {
+    static final int DEFAULT_CAPACITY = 8192;
+    private static Object[] sharedState;
+
+    private final int mask;
+    private final AtomicLong head;
+    private final AtomicLong tail;
+    private final AtomicLongArray published;
+    private final long[] timestamps;
+    private final String[] ruleNames;
+    private final String[] threadNames;
+    private final String[] messages;
+    private final LongAdder dropped;
+
+    private TraceRingBuffer(Object[] state) {
+        this.head = (AtomicLong) state[0];
+        this.tail = (AtomicLong) state[1];
+        this.published = (AtomicLongArray) state[2];
+        this.timestamps = (long[]) state[3];
+        this.ruleNames = (String[]) state[4];
+        this.threadNames = (String[]) state[5];
+        this.messages = (String[]) state[6];
+        this.dropped = (LongAdder) state[7];
+        this.mask = timestamps.length - 1;
+    }
+
+    /**
+     * Called reflectively on the system class loader copy. Use {@link #shared(int)} instead. The capacity of the
+     * first call wins, rounded up to a power of two.
+     */
+    public static synchronized Object[] state(int capacity) {
+        if (sharedState == null) {
+            sharedState = newState(capacity);
+        }
+        return sharedState;
+    }
+
+    private static Object[] newState(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        return new Object[]{new AtomicLong(), new AtomicLong(), new AtomicLongArray(size), new long[size],
+                new String[size], new String[size], new String[size], new LongAdder()};
+    }
+
+    /**
+     * A buffer of its own, not shared with the rules.
+     */
+    static TraceRingBuffer unshared(int capacity) {
+        return new TraceRingBuffer(newState(capacity));
+    }
+
+    static TraceRingBuffer shared(int capacity) {
+        try {
+            Class<?> systemCopy = ClassLoader.getSystemClassLoader().loadClass(TraceRingBuffer.class.getName());
+            return new TraceRingBuffer((Object[]) systemCopy.getMethod("state", int.class).invoke(null, capacity));
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return new TraceRingBuffer(state(capacity));
+        }
+    }
+
+    /**
+     * Adds an entry unless the buffer is full. Never blocks.
+     */
+    public boolean offer(String ruleName, String message) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail.get() > mask) {
+                dropped.increment();
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        int slot = (int) sequence & mask;
+        timestamps[slot] = System.currentTimeMillis();
+        ruleNames[slot] = ruleName;
+        threadNames[slot] = Thread.currentThread().getName();
+        messages[slot] = message;
+        // publishing with a release store makes the slot contents visible to the consumer which reads the flag first
+        published.lazySet(slot, sequence + 1);
+        return true;
+    }
+
+    /**
+     * Hands up to max published entries to the consumer, in sequence order. Must only be called by one thread at a time.
+     */
+    int drain(EntryConsumer consumer, int max) {
+        long sequence = tail.get();
+        int drained = 0;
+        while (drained < max) {
+            int slot = (int) sequence & mask;
+            if (published.get(slot) != sequence + 1) {
+                // not written yet, or claimed but not published yet
+                break;
+            }
+            consumer.accept(sequence, timestamps[slot], ruleNames[slot], threadNames[slot], messages[slot]);
+            messages[slot] = null;
+            sequence++;
+            drained++;
+            tail.lazySet(sequence);
+        }
+        return drained;
+    }
+
+    public long getWritten() {
+        return head.get();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    interface EntryConsumer {
+        void accept(long sequence, long timestamp, String ruleName, String threadName, String message);
+    }
+}
@@ -0,0 +1,195 @@
+package org.javaprofile.bootman.byteman;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the {@link TraceRingBuffer} on a background thread into a bounded window of recent entries, which can be
+ * read, or tailed by passing the sequence number of the last entry seen, through the REST API. Reads are rate limited,
+ * so that a dashboard polling in a tight loop cannot turn into load of its own. Optionally the entries are also
+ * written to the log, still off the instrumented threads.
+ */
+@Component
+public class TraceSink {
+    private static final Logger logger = LoggerFactory.getLogger(TraceSink.class);
+    private static final int DRAIN_BATCH = 1024;
+    private final TraceRingBuffer ringBuffer;
+    private final int retainedEntries;
+    private final boolean logEntries;
+    private final RateLimiter readLimiter;
+    private final ScheduledExecutorService drainer;
+    private final Deque<TraceEntry> recentEntries = new ArrayDeque<>();
+    private long drained;
+
+    @Autowired
+    public TraceSink(@Value("${bootman.byteman.trace.capacity:8192}") int capacity,
+                     @Value("${bootman.byteman.trace.retained-entries:2000}") int retainedEntries,
+                     @Value("${bootman.byteman.trace.drain-interval-millis:100}") long drainIntervalMillis,
+                     @Value("${bootman.byteman.trace.log-entries:false}") boolean logEntries,
+                     @Value("${bootman.byteman.trace.max-reads-per-second:5}") double maxReadsPerSecond) {
+        this(TraceRingBuffer.shared(capacity), retainedEntries, drainIntervalMillis, logEntries, maxReadsPerSecond);
+    }
+
+    TraceSink(TraceRingBuffer ringBuffer, int retainedEntries, long drainIntervalMillis, boolean logEntries, double maxReadsPerSecond) {
+        this.ringBuffer = ringBuffer;
+        this.retainedEntries = retainedEntries;
+        this.logEntries = logEntries;
+        this.readLimiter = RateLimiter.create(maxReadsPerSecond);
+        this.drainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bootman-trace-drainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        drainer.scheduleWithFixedDelay(this::drain, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void drain() {
+        try {
+            int count;
+            do {
+                List<TraceEntry> batch = new ArrayList<>();
+                count = ringBuffer.drain((sequence, timestamp, ruleName, threadName, message) ->
+                        batch.add(new TraceEntry(sequence, Instant.ofEpochMilli(timestamp), ruleName, threadName, message)), DRAIN_BATCH);
+                if (logEntries) {
+                    batch.forEach(entry -> logger.info("[{}] [{}] {}", entry.getRuleName(), entry.getThreadName(), entry.getMessage()));
+                }
+                synchronized (recentEntries) {
+                    for (TraceEntry entry : batch) {
+                        recentEntries.addLast(entry);
+                        if (recentEntries.size() > retainedEntries) {
+                            recentEntries.removeFirst();
+                        }
+                    }
+                    drained += count;
+                }
+            } while (count == DRAIN_BATCH);
+        } catch (Exception ex) {
+            logger.warn("Ignoring exception encountered while draining the trace buffer", ex);
+        }
+    }
+
+    /**
+     * Returns up to limit retained entries with a sequence number greater than since, oldest first, or null if the
+     * caller exceeded the read rate. Pass since = -1 to start from the oldest retained entry.
+     */
+    public TracePage read(long since, int limit) {
+        if (!readLimiter.tryAcquire()) {
+            return null;
+        }
+        List<TraceEntry> entries = new ArrayList<>();
+        long drainedSoFar;
+        synchronized (recentEntries) {
+            for (TraceEntry entry : recentEntries) {
+                if (entry.getSequence() > since && entries.size() < limit) {
+                    entries.add(entry);
+                }
+            }
+            drainedSoFar = drained;
+        }
+        long next = entries.isEmpty() ? since : entries.get(entries.size() - 1).getSequence();
+        return new TracePage(entries, next, ringBuffer.getWritten(), ringBuffer.getDropped(), drainedSoFar, ringBuffer.getCapacity());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainer.shutdownNow();
+    }
+
+    public static class TraceEntry {
+        private final long sequence;
+        private final Instant timestamp;
+        private final String ruleName;
+        private final String threadName;
+        private final String message;
+
+        private TraceEntry(long sequence, Instant timestamp, String ruleName, String threadName, String message) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.ruleName = ruleName;
+            this.threadName = threadName;
+            this.message = message;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+
+        public String getRuleName() {
+            return ruleName;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    public static class TracePage {
+        private final List<TraceEntry> entries;
+        private final long nextSince;
+        private final long written;
+        private final long dropped;
+        private final long drained;
+        private final int capacity;
+
+        private TracePage(List<TraceEntry> entries, long nextSince, long written, long dropped, long drained, int capacity) {
+            this.entries = entries;
+            this.nextSince = nextSince;
+            this.written = written;
+            this.dropped = dropped;
+            this.drained = drained;
+            this.capacity = capacity;
+        }
+
+        public List<TraceEntry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Pass this as since on the next read to get only the entries written in the meantime.
+         */
+        public long getNextSince() {
+            return nextSince;
+        }
+
+        public long getWritten() {
+            return written;
+        }
+
+        /**
+         * Entries dropped because the buffer was full. Entries falling out of the retained window are not counted.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getDrained() {
+            return drained;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+    }
+}
@@ -1,39 +1,132 @@
 package org.javaprofile.bootman.controller;
 
 import com.diffplug.common.base.Errors;
-import com.google.common.collect.ImmutableList;
 import com.sun.tools.attach.VirtualMachine;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import org.javaprofile.bootman.byteman.AgentChannel;
+import org.javaprofile.bootman.byteman.AgentChannels;
+import org.javaprofile.bootman.byteman.AgentMode;
+import org.javaprofile.bootman.byteman.AgentStateHolder;
+import org.javaprofile.bootman.byteman.InProcessAgentManager;
+import org.javaprofile.bootman.byteman.MethodProfiler;
+import org.javaprofile.bootman.byteman.RuleBudgetEnforcer;
+import org.javaprofile.bootman.byteman.RuleInstrumenter;
+import org.javaprofile.bootman.byteman.RuleMetrics;
+import org.javaprofile.bootman.byteman.RuleScripts;
+import org.javaprofile.bootman.byteman.RuleSetDeployer;
+import org.javaprofile.bootman.byteman.RulesDirectoryWatcher;
+import org.javaprofile.bootman.byteman.TraceSink;
+import org.javaprofile.bootman.management.ManagementEndpoint;
 import org.jboss.byteman.agent.Main;
 import org.jboss.byteman.agent.TransformListener;
 import org.jboss.byteman.agent.Transformer;
 import org.jboss.byteman.agent.install.Install;
-import org.jboss.byteman.agent.submit.Submit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Supplier;
 
 @RestController
+@ManagementEndpoint
 @Api(value="/byteman", tags={"Byteman Controller"},  produces ="application/json")
 public class BytemanController {
     private static final Logger logger = LoggerFactory.getLogger(BytemanController.class);
+    /**
+     * How the response of addRules starts if any of the submitted rules failed to inject or compile.
+     */
+    public static final String RULE_ERRORS_MESSAGE = "While trying to inject following rules:";
+    private final AgentMode agentMode;
+    private final AgentStateHolder agentState;
+    private final RuleSetDeployer ruleSetDeployer;
+    private final RuleInstrumenter ruleInstrumenter;
+    private final RuleBudgetEnforcer ruleBudgetEnforcer;
+    private final AgentChannels agentChannels;
+    private final TraceSink traceSink;
+    private final MethodProfiler methodProfiler;
+    private final RulesDirectoryWatcher rulesDirectoryWatcher;
+
+    public BytemanController(@Value("${bootman.byteman.agent-mode:in-process}") AgentMode agentMode,
+                             AgentStateHolder agentState, AgentChannels agentChannels, RuleSetDeployer ruleSetDeployer,
+                             RuleInstrumenter ruleInstrumenter, RuleBudgetEnforcer ruleBudgetEnforcer, TraceSink traceSink,
+                             MethodProfiler methodProfiler, RulesDirectoryWatcher rulesDirectoryWatcher) {
+        this.agentMode = agentMode;
+        this.agentState = agentState;
+        this.agentChannels = agentChannels;
+        this.ruleSetDeployer = ruleSetDeployer;
+        this.ruleInstrumenter = ruleInstrumenter;
+        this.ruleBudgetEnforcer = ruleBudgetEnforcer;
+        this.traceSink = traceSink;
+        this.methodProfiler = methodProfiler;
+        this.rulesDirectoryWatcher = rulesDirectoryWatcher;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadRulesDirectory() {
+        if(!rulesDirectoryWatcher.isEnabled()) {
+            return;
+        }
+        //a broken rules directory must not keep the application from starting
+        try {
+            if(rulesDirectoryWatcher.isActivateAgent() && !isAgentActive().isAttached()) {
+                logger.info(activateAgent(new String[0]));
+            }
+            rulesDirectoryWatcher.start();
+        } catch (Exception ex) {
+            logger.error("Error encountered while loading the rules directory", ex);
+        }
+    }
+
+    @RequestMapping(value="/agentState", method= RequestMethod.GET)
+    @ApiOperation("show whether the Byteman agent is inactive, activating, active or terminating. This is cheap enough to be polled.")
+    public ProcessInfo agentState() {
+        return isAgentActive();
+    }
 
     @RequestMapping(value="/activateAgent", method= RequestMethod.GET)
     @ApiOperation("activate Byteman agent with optional properties like org.jboss.byteman.verbose. You can use any properties from https://downloads.jboss.org/byteman/4.0.9/byteman-programmers-guide.html#environment-settings")
     public String activateAgent(@RequestParam(value="properties", required = false, defaultValue = "org.jboss.byteman.verbose") String[] properties) {
-        ProcessInfo processInfo = isAgentActive();
-        if(processInfo.isAttached()) {
-            return "byteman agent is already activated in current process with pid: " + processInfo.getPid();
+        if(!agentState.beginActivation()) {
+            ProcessInfo processInfo = isAgentActive();
+            if(processInfo.isAttached()) {
+                return "byteman agent is already activated in current process with pid: " + processInfo.getPid();
+            }
+            return busyMessage(processInfo);
+        }
+        try {
+            String result = installAgent(isAgentActive(), properties);
+            agentState.activated();
+            //restore the rules of the rules directory right away
+            reloadRulesDirectoryQuietly();
+            return result;
+        } catch (Throwable ex) {
+            agentState.activationFailed();
+            throw ex;
+        }
+    }
+
+    private String installAgent(ProcessInfo processInfo, String[] properties) {
+        if(agentMode == AgentMode.IN_PROCESS) {
+            if(InProcessAgentManager.systemCopy() != null) {
+                //activate byteman agent without its listener. bootman talks to the agent's Retransformer directly.
+                installFromVM(processInfo.getPid(), true, null, 0, properties, false, InProcessAgentManager.class.getName());
+                return "activated in-process byteman agent in current process with pid: " + processInfo.getPid();
+            }
+            //e.g. when running as executable fat jar, the agent cannot load the bootman classes from the system class loader
+            logger.warn("bootman classes are not visible to the system class loader. Falling back to the byteman agent listener.");
         }
         //activate byteman agent in the current VM with default port and provided properties
         try {
@@ -41,7 +134,7 @@ public class BytemanController {
         } catch (Throwable ex) {
             //byteman couldn't be picked up from classpath. Lets try loading it ourselves.
             logger.warn("falling back to manually load byteman agent jars as byteman default mechanism could not attach to pid: " + processInfo.getPid(), ex);
-            installFromVM(processInfo.getPid(), true, null, 0, properties, false);
+            installFromVM(processInfo.getPid(), true, null, 0, properties, false, null);
         }
         return "activated byteman agent in current process with pid: " + processInfo.getPid();
     }
@@ -50,22 +143,39 @@ public class BytemanController {
     @ApiOperation("terminate Byteman agent. This will also clean out all installed rules and leave the JVM at a pristine state")
     public String terminateAgent() {
         logger.info("Terminating byteman agent listener.");
-        ProcessInfo processInfo = isAgentActive();
-        if(processInfo.isAttached()) {
+        if(agentState.beginTermination()) {
             //First delete all installed rules. Otherwise the rules will linger on even after the agent is terminated.
             //Subsequent reactivation of agent will not have access to these rulescripts. Yet they will still be active
             //and intercepting the requests. just clean them up to make sure everything goes back to pristine state.
             try {
-                deleteAllRules();
+                //the agent is TERMINATING already, so bypass the active check of the deleteAllRules endpoint
+                agentChannel().deleteAllRules();
             } catch (Throwable ex) {
                 //ignore any exception arising out of rule deletions
                 logger.warn("Ignoring exception encountered while trying to delete all rules", ex);
             }
-            //then close the listener socket and cleanup
-            logger.warn("Terminating Byteman agent Listener interface");
-            TransformListener.terminate();
-            cleanupAgentEnvironment();
-            return "Terminated byteman agent from current process with pid: " + processInfo.getPid();
+            ruleBudgetEnforcer.unregisterAll();
+            methodProfiler.removeAll();
+            rulesDirectoryWatcher.reset();
+            //then close the listener socket (or drop the in-process agent reference) and cleanup
+            try {
+                if(agentChannels.isInProcess()) {
+                    logger.warn("Terminating in-process Byteman agent");
+                    agentChannels.terminateInProcess();
+                } else {
+                    logger.warn("Terminating Byteman agent Listener interface");
+                    TransformListener.terminate();
+                }
+                cleanupAgentEnvironment();
+            } finally {
+                //should anything above fail half way, the background reconciliation picks up the actual agent state
+                agentState.terminated();
+            }
+            return "Terminated byteman agent from current process with pid: " + agentState.getPid();
+        }
+        ProcessInfo processInfo = isAgentActive();
+        if(processInfo.getState() != AgentStateHolder.State.INACTIVE) {
+            return busyMessage(processInfo);
         }
         return "No active byteman agent listener found for current process with pid: " + processInfo.getPid();
     }
@@ -98,60 +208,226 @@ public class BytemanController {
     @ApiOperation("list already installed Byteman Rules")
     public String listAllRules() {
         logger.info("listing all rules already installed.");
-        return execute(Errors.rethrow().wrap(doSubmit()::listAllRules));
+        //rules disabled for exceeding their budget are listed as comments at the end
+        return execute(Errors.rethrow().wrap(() -> agentChannel().listAllRules() + ruleBudgetEnforcer.describeDisabledRules()));
     }
 
     @RequestMapping(value="/deleteAllRules", method= RequestMethod.GET)
     @ApiOperation("delete all Byteman Rules which are already installed")
     public String deleteAllRules() {
         logger.info("deleting all rules.");
-        return execute(Errors.rethrow().wrap(doSubmit()::deleteAllRules));
+        return execute(Errors.rethrow().wrap(() -> {
+            ruleBudgetEnforcer.unregisterAll();
+            methodProfiler.removeAll();
+            //rules of the rules directory come back with the next change of their file or a reload
+            rulesDirectoryWatcher.reset();
+            return agentChannel().deleteAllRules();
+        }));
     }
 
     @RequestMapping(value="/deleteRules", method= RequestMethod.POST)
     @ApiOperation("delete one or more Byteman Rules. Just provide the list of Rule names to be deleted, prefixed with the keyword RULE on each line")
     public String deleteRules(@RequestBody String rule) {
         return execute(Errors.rethrow().wrap(() -> {
-            File ruleFilePath = writeRuleToTempFile(rule);
-            logger.info("rules are written in {}", ruleFilePath);
-            try {
-                logger.info("deleting rules from file {}", ruleFilePath);
-                logger.info("rules to be deleted:\n {}", rule);
-                return doSubmit().deleteRulesFromFiles(ImmutableList.of(ruleFilePath.getAbsolutePath()));
-            } finally {
-                logger.info("Now removing the rule file: {}", ruleFilePath);
-                ruleFilePath.delete();
-            }
+            logger.info("rules to be deleted:\n {}", rule);
+            ruleBudgetEnforcer.unregister(RuleScripts.ruleNames(rule));
+            //the rule text is handed over to the agent as is. No need to write it to a file first.
+            return agentChannel().deleteRules("deleteRules", rule);
         }));
     }
 
     @RequestMapping(value="/addRules", method= RequestMethod.POST)
-    @ApiOperation("add/update one or more Byteman Rules")
-    public String addRules(@RequestBody String rule) {
+    @ApiOperation("add/update one or more Byteman Rules. Optionally give the rules an overhead budget: an average time per trigger (maxMicrosPerTrigger) and/or a total time per second across all threads (maxMillisPerSecond). Rules staying over their budget are deleted automatically. A samplingRate below 1 runs the rules for that share of the triggers only. With debugRequestsOnly the rules only run for requests carrying the debug header. Budgets, sampling and debugRequestsOnly fail with 400 for rules bootman cannot rewrite, i.e. rules with their own HELPER or targeting JDK classes")
+    public String addRules(@RequestBody String rule,
+                           @RequestParam(value="maxMicrosPerTrigger", required = false, defaultValue = "0") double maxMicrosPerTrigger,
+                           @RequestParam(value="maxMillisPerSecond", required = false, defaultValue = "0") double maxMillisPerSecond,
+                           @RequestParam(value="samplingRate", required = false, defaultValue = "1") double samplingRate,
+                           @RequestParam(value="debugRequestsOnly", required = false, defaultValue = "false") boolean debugRequestsOnly) {
+        //negated, so that NaN fails as well
+        if(!(samplingRate > 0 && samplingRate <= 1)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "samplingRate must be greater than 0 and at most 1, but was " + samplingRate);
+        }
+        if(!(maxMicrosPerTrigger >= 0 && maxMillisPerSecond >= 0) || Double.isInfinite(maxMicrosPerTrigger) || Double.isInfinite(maxMillisPerSecond)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format(
+                    "maxMicrosPerTrigger and maxMillisPerSecond must be finite and not negative, but were %s and %s", maxMicrosPerTrigger, maxMillisPerSecond));
+        }
+        RuleBudgetEnforcer.RuleBudget budget = new RuleBudgetEnforcer.RuleBudget(maxMicrosPerTrigger, maxMillisPerSecond, samplingRate);
+        //let BootmanHelper count triggers and measure the time spent in every rule
+        RuleInstrumenter.InstrumentedScript instrumented = ruleInstrumenter.instrument(rule, samplingRate, debugRequestsOnly);
+        if((budget.isEnforced() || samplingRate < 1 || debugRequestsOnly) && !instrumented.getSkippedRules().isEmpty()) {
+            //these rules would go to the agent unchanged and run for every trigger of every request. Without metrics
+            //their budget could never be breached either.
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "budgets, sampling and debug requests only cannot be applied to rules " + instrumented.getSkippedRules());
+        }
         return execute(Errors.rethrow().wrap(() -> {
-            File ruleFilePath = writeRuleToTempFile(rule);
-            logger.info("rules are written in " + ruleFilePath);
+            logger.info("rules to be added:\n {}", rule);
+            //the rule text is handed over to the agent as is. No need to write it to a file first.
+            String result = agentChannel().addRules("addRules", instrumented.getScript());
+            if(budget.isEnforced()) {
+                ruleBudgetEnforcer.register(RuleScripts.ruleNames(rule), budget);
+            } else {
+                //a rule added again without a budget is no longer bound to its old one
+                ruleBudgetEnforcer.unregister(RuleScripts.ruleNames(rule));
+            }
+            //rules replaced here no longer match what the rule set deployed under their names
+            ruleSetDeployer.forget(rule);
+            //sometimes byteman does not throw an exception even when there is an error parsing the rule to be added
+            //in such cases, check the rules just added. Rules broken before must not fail this request.
+            Map<String, String> errors = agentChannel().ruleErrors(RuleScripts.ruleNames(rule));
+            if(!errors.isEmpty()) {
+                StringBuilder details = new StringBuilder();
+                errors.forEach((ruleName, error) -> details.append(ruleName).append(": ").append(error).append('\n'));
+                return String.format(RULE_ERRORS_MESSAGE + "\n\n[\n%s]\n\nI encountered following errors: \n\n%s", result, details);
+            } else {
+                return result;
+            }
+        }));
+    }
+
+    @RequestMapping(value="/deployRuleSet", method= RequestMethod.POST)
+    @ApiOperation("deploy the complete set of Byteman Rules. Only rules which were added or changed since the last deployment are injected, rules missing from the set are deleted. If any of the new rules fails, the previous version is restored. Pass expectedVersion to make sure nobody else deployed in the meantime")
+    public Object deployRuleSet(@RequestBody String ruleSet, @RequestParam(value="expectedVersion", required = false) Long expectedVersion) {
+        ProcessInfo processInfo = isAgentActive();
+        if(!processInfo.isAttached()) {
+            return activateFirstMessage(processInfo);
+        }
+        logger.info("rule set to be deployed:\n {}", ruleSet);
+        return Errors.rethrow().get(() -> {
+            RuleSetDeployer.RuleSetDeployment deployment = ruleSetDeployer.deploy(agentChannel(), ruleSet, expectedVersion);
+            if(!deployment.isRolledBack()) {
+                //a budget given through addRules belonged to the version replaced or deleted here
+                List<String> replaced = new ArrayList<>(deployment.getAdded());
+                replaced.addAll(deployment.getChanged());
+                replaced.addAll(deployment.getRemoved());
+                ruleBudgetEnforcer.unregister(replaced);
+            }
+            return deployment;
+        });
+    }
+
+    @RequestMapping(value="/ruleSet", method= RequestMethod.GET)
+    @ApiOperation("show the version and the rules of the rule set deployed last")
+    public RuleSetDeployer.RuleSet ruleSet() {
+        return ruleSetDeployer.current();
+    }
+
+    @RequestMapping(value="/ruleMetrics", method= RequestMethod.GET)
+    @ApiOperation("show per rule trigger counts, how often the condition passed and the time spent in each rule, costliest rule first")
+    public List<RuleMetrics.RuleStatistics> ruleMetrics() {
+        return RuleMetrics.snapshot();
+    }
+
+    @RequestMapping(value="/ruleBudgets", method= RequestMethod.GET)
+    @ApiOperation("show the rules running with an overhead budget and how they did during the last check")
+    public List<RuleBudgetEnforcer.BudgetStatus> ruleBudgets() {
+        return ruleBudgetEnforcer.budgets();
+    }
+
+    @RequestMapping(value="/disabledRules", method= RequestMethod.GET)
+    @ApiOperation("show the rules bootman deleted because they stayed over their overhead budget, latest first")
+    public List<RuleBudgetEnforcer.DisabledRule> disabledRules() {
+        return ruleBudgetEnforcer.disabledRules();
+    }
+
+    @RequestMapping(value="/traces", method= RequestMethod.GET)
+    @ApiOperation("read the entries rules wrote with bufferTrace(...), oldest first. To tail them, pass the nextSince value of the previous response as since")
+    public ResponseEntity<TraceSink.TracePage> traces(@RequestParam(value="since", required = false, defaultValue = "-1") long since,
+                                                      @RequestParam(value="limit", required = false, defaultValue = "500") int limit) {
+        TraceSink.TracePage page = traceSink.read(since, limit);
+        if(page == null) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+        return ResponseEntity.ok(page);
+    }
+
+    @RequestMapping(value="/startProfile", method= RequestMethod.GET)
+    @ApiOperation("profile the latency of one or more methods of a class. bootman generates and installs the timing rules itself. Prefix className with ^ or set includeOverrides to include overriding methods of subclasses, set isInterface to profile the implementations of an interface. Methods may carry a parameter list like sayHello(String) to pick an overload")
+    public String startProfile(@RequestParam(value="className") String className,
+                               @RequestParam(value="methods") String[] methods,
+                               @RequestParam(value="name", required = false) String name,
+                               @RequestParam(value="includeOverrides", required = false, defaultValue = "false") boolean includeOverrides,
+                               @RequestParam(value="isInterface", required = false, defaultValue = "false") boolean isInterface) {
+        return execute(Errors.rethrow().wrap(() -> {
+            boolean overrides = includeOverrides || className.startsWith("^");
+            MethodProfiler.Profile profile = methodProfiler.create(name, className.replaceFirst("^\\^", "").trim(),
+                    Arrays.asList(methods), overrides, isInterface);
+            logger.info("profile rules to be added:\n {}", profile.getRuleScript());
+            String result;
+            Map<String, String> errors;
             try {
-                logger.info("adding rules from file {}", ruleFilePath);
-                logger.info("rules to be added:\n {}", rule);
-                String result = doSubmit().addRulesFromFiles(ImmutableList.of(ruleFilePath.getAbsolutePath()));
-                //sometimes byteman does not throw an exception even when there is an error parsing the rule to be added
-                //in such cases, check all the rules to make sure there are no byteman exceptions, else show the entire
-                //set of rules to the user with the error information
-                String allRules = listAllRules();
-                if(allRules.contains("org.jboss.byteman.rule.exception")) {
-                    return String.format("While trying to inject following rules:\n\n[\n%s]\n\nI encountered following Exception: \n\n%s",
-                            result, allRules);
-                } else {
-                    return result;
-                }
-            } finally {
-                logger.info("Now removing the rule file: {}", ruleFilePath);
-                ruleFilePath.delete();
+                //the generated rules bring their own helper, so they are not instrumented for rule metrics
+                result = agentChannel().addRules("startProfile", profile.getRuleScript());
+                errors = agentChannel().ruleErrors(profile.getRuleNames());
+            } catch (Exception ex) {
+                //otherwise the profile would stay registered without its rules and block its name
+                discardProfile(profile);
+                throw ex;
+            }
+            if(!errors.isEmpty()) {
+                discardProfile(profile);
+                return String.format("Could not profile %s: %s", className, errors);
             }
+            return result;
         }));
     }
 
+    private void discardProfile(MethodProfiler.Profile profile) {
+        try {
+            agentChannel().deleteRules("startProfile", profile.getDeleteScript());
+        } catch (Throwable ex) {
+            logger.warn("Ignoring exception encountered while deleting the rules of profile " + profile.getName(), ex);
+        } finally {
+            methodProfiler.remove(profile.getName());
+        }
+    }
+
+    @RequestMapping(value="/profiles", method= RequestMethod.GET)
+    @ApiOperation("show the running method profiles with call counts, exceptions and p50/p90/p99/p999 latencies per method")
+    public List<MethodProfiler.ProfileReport> profiles() {
+        return methodProfiler.reports();
+    }
+
+    @RequestMapping(value="/stopProfile", method= RequestMethod.GET)
+    @ApiOperation("stop a method profile, uninstalling its rules. The latencies recorded so far are discarded")
+    public String stopProfile(@RequestParam(value="name") String name) {
+        MethodProfiler.Profile profile = methodProfiler.get(name);
+        if(profile == null) {
+            return "No profile named " + name + " is running";
+        }
+        //uninstall the generated rules the same way as any other rules
+        String result = deleteRules(profile.getDeleteScript());
+        methodProfiler.remove(name);
+        return result;
+    }
+
+    @RequestMapping(value="/rulesDirectory", method= RequestMethod.GET)
+    @ApiOperation("show the rule files loaded from bootman.byteman.rules-directory.path with their rules and errors")
+    public RulesDirectoryWatcher.DirectoryStatus rulesDirectory() {
+        return rulesDirectoryWatcher.status();
+    }
+
+    @RequestMapping(value="/reloadRulesDirectory", method= RequestMethod.GET)
+    @ApiOperation("push the rules of the rules directory which changed since they were loaded or which the agent no longer has installed, e.g. after deleteRules or deleteAllRules")
+    public Object reloadRulesDirectory() {
+        if(!rulesDirectoryWatcher.isEnabled()) {
+            throw new IllegalStateException("no bootman.byteman.rules-directory.path configured");
+        }
+        ProcessInfo processInfo = isAgentActive();
+        if(!processInfo.isAttached()) {
+            return activateFirstMessage(processInfo);
+        }
+        Errors.rethrow().run(rulesDirectoryWatcher::resync);
+        return rulesDirectoryWatcher.status();
+    }
+
+    @RequestMapping(value="/resetRuleMetrics", method= RequestMethod.GET)
+    @ApiOperation("reset the per rule metrics")
+    public String resetRuleMetrics() {
+        RuleMetrics.reset();
+        return "rule metrics reset";
+    }
+
     private String execute(Supplier<String> bytemanAction) {
         ProcessInfo processInfo = isAgentActive();
         //Only if byteman agent is active, execute the byteman action
@@ -162,40 +438,39 @@ public class BytemanController {
         return activateFirstMessage(processInfo);
     }
 
-    private File writeRuleToTempFile(String rule) {
-        try{
-            //create a temp file with name rule.btm
-            File ruleFile = File.createTempFile("rule", ".btm");
-            //write the rules inside rule.btm
-            BufferedWriter bw = new BufferedWriter(new FileWriter(ruleFile));
-            bw.write(rule);
-            bw.close();
-            return ruleFile;
-        } catch(IOException e){
-            throw new RuntimeException(e);
+    private void reloadRulesDirectoryQuietly() {
+        try {
+            rulesDirectoryWatcher.resync();
+        } catch (Exception ex) {
+            logger.error("Error encountered while reloading the rules directory", ex);
         }
     }
 
+    private String busyMessage(ProcessInfo processInfo) {
+        return "byteman agent is " + processInfo.getState() + " in current process with pid: " + processInfo.getPid() + ". Please try again shortly.";
+    }
+
     private String activateFirstMessage(ProcessInfo processInfo) {
         return "Please run activateAgent API first. byteman agent is not activated in current process with pid: " + processInfo.getPid();
     }
 
-    private Submit doSubmit() {
-        return new Submit(null, 0, null);
+    private AgentChannel agentChannel() {
+        //if the agent was activated in-process, talk to it directly. Otherwise go through its listener.
+        return agentChannels.current();
     }
 
 
     private ProcessInfo isAgentActive() {
-        //get the processId of the current VM. In Java 8 world, this is perhaps the most portable way
-        //to get the pid.
-        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
-        return new ProcessInfo(pid, Install.isAgentAttached(pid));
+        //read the cached agent state instead of probing the VM through the Attach API on every request
+        AgentStateHolder.State state = agentState.getState();
+        return new ProcessInfo(agentState.getPid(), state == AgentStateHolder.State.ACTIVE, state);
     }
 
-    private void installFromVM(String pid, boolean addToBoot, String host, int port, String[] properties, boolean setPolicy) {
+    private void installFromVM(String pid, boolean addToBoot, String host, int port, String[] properties, boolean setPolicy, String managerClassName) {
         String props = buildPropertyOption(properties);
 
-        String agentOptions = "listener:true";
+        //without a custom manager, the agent starts its TransformListener
+        String agentOptions = managerClassName != null ? "manager:" + managerClassName : "listener:true";
         if (host != null && host.length() != 0) {
             agentOptions += ",address:" + host;
         }
@@ -249,10 +524,12 @@ public class BytemanController {
     public static class ProcessInfo {
         private String pid;
         private boolean attached;
+        private AgentStateHolder.State state;
 
-        public ProcessInfo(String pid, boolean attached) {
+        public ProcessInfo(String pid, boolean attached, AgentStateHolder.State state) {
             this.pid = pid;
             this.attached = attached;
+            this.state = state;
         }
 
         public String getPid() {
@@ -262,5 +539,9 @@ public class BytemanController {
         public boolean isAttached() {
             return attached;
         }
+
+        public AgentStateHolder.State getState() {
+            return state;
+        }
     }
 }
\ No newline at end of file
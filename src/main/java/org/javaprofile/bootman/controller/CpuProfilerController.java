@@ -0,0 +1,46 @@
+package org.javaprofile.bootman.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.javaprofile.bootman.management.ManagementEndpoint;
+import org.javaprofile.bootman.profiler.SamplingProfiler;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@ManagementEndpoint
+@RequestMapping(value="/cpuProfile")
+@Api(value="/cpuProfile", tags={"CPU Profiler Controller"},  produces ="application/json")
+public class CpuProfilerController {
+    private final SamplingProfiler samplingProfiler;
+
+    public CpuProfilerController(SamplingProfiler samplingProfiler) {
+        this.samplingProfiler = samplingProfiler;
+    }
+
+    @ApiOperation("start sampling the thread stacks every intervalMillis for durationSeconds, capped at bootman.profiler.max-duration-seconds. Only threads which are running and used CPU since the last sample are sampled unless includeIdle is set. threadNamePattern is a regular expression limiting the sampled threads")
+    @RequestMapping(value = "/start", method = RequestMethod.GET)
+    public SamplingProfiler.ProfileStatus start(@RequestParam(value = "durationSeconds", required = false, defaultValue = "30") long durationSeconds,
+                                                @RequestParam(value = "intervalMillis", required = false, defaultValue = "10") long intervalMillis,
+                                                @RequestParam(value = "includeIdle", required = false, defaultValue = "false") boolean includeIdle,
+                                                @RequestParam(value = "threadNamePattern", required = false) String threadNamePattern) {
+        return samplingProfiler.start(durationSeconds, intervalMillis, includeIdle, threadNamePattern);
+    }
+
+    @ApiOperation("stop the running CPU profile. Its stacks stay available until the next profile starts")
+    @RequestMapping(value = "/stop", method = RequestMethod.GET)
+    public SamplingProfiler.ProfileStatus stop() {
+        return samplingProfiler.stop();
+    }
+
+    @ApiOperation("show whether a CPU profile is running, how many samples it took, how full its frame trie is and what a tick costs")
+    @RequestMapping(value = "/status", method = RequestMethod.GET)
+    public SamplingProfiler.ProfileStatus status() {
+        return samplingProfiler.status();
+    }
+
+    @ApiOperation("get the sampled stacks in collapsed form, one call path per line followed by its sample count, ready for flamegraph.pl or speedscope. Works while the profile is running as well")
+    @RequestMapping(value = "/collapsed", method = RequestMethod.GET, produces = "text/plain")
+    public String collapsed(@RequestParam(value = "minCount", required = false, defaultValue = "1") long minCount) {
+        return samplingProfiler.collapsedStacks(minCount);
+    }
+}
@@ -3,60 +3,245 @@ package org.javaprofile.bootman.controller;
 import com.google.common.collect.ImmutableMap;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import org.javaprofile.bootman.devconsole.CompiledScriptCache;
+import org.javaprofile.bootman.devconsole.ScriptBackend;
+import org.javaprofile.bootman.devconsole.ScriptBackends;
+import org.javaprofile.bootman.devconsole.ScriptEnginePool;
+import org.javaprofile.bootman.devconsole.ScriptJob;
+import org.javaprofile.bootman.devconsole.ScriptJobService;
+import org.javaprofile.bootman.devconsole.ScriptResourceMonitor;
+import org.javaprofile.bootman.devconsole.ScriptUsage;
+import org.javaprofile.bootman.devconsole.SpringBeanBindings;
+import org.javaprofile.bootman.devconsole.StreamingResultWriter;
+import org.javaprofile.bootman.management.ManagementEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
-import org.springframework.beans.factory.BeanCreationException;
-import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
-import org.springframework.context.ApplicationListener;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.annotation.PreDestroy;
 import javax.script.*;
+import javax.servlet.http.HttpServletResponse;
 import java.util.*;
 
 @RestController
+@ManagementEndpoint
 @RequestMapping(value="/devConsole")
 @Api(value="/devConsole", tags={"Developer Console Controller"},  produces ="application/json")
-public class DevConsoleController implements ApplicationContextAware, ApplicationListener<ApplicationReadyEvent> {
+public class DevConsoleController implements ApplicationContextAware {
     private static final Logger logger = LoggerFactory.getLogger(DevConsoleController.class);
-    private final Map<Language, ScriptEngine> scriptingEngines;
-    private ApplicationContext context;
+    private final Map<Language, ScriptEnginePool> scriptingEnginePools;
+    // languages which do not run on a JSR-223 engine
+    private final Map<Language, ScriptBackend> scriptBackends;
+    private final CompiledScriptCache compiledScriptCache;
+    private final ScriptJobService scriptJobService;
+    private final StreamingResultWriter streamingResultWriter;
+    private final ScriptResourceMonitor scriptResourceMonitor;
+    // Spring beans shared by all executions. Scripts see them through a read-only GLOBAL_SCOPE which resolves beans lazily.
+    private Bindings beanBindings;
 
-    public DevConsoleController() {
+    public DevConsoleController(CompiledScriptCache compiledScriptCache,
+                                ScriptJobService scriptJobService,
+                                StreamingResultWriter streamingResultWriter,
+                                ScriptResourceMonitor scriptResourceMonitor,
+                                @Value("${bootman.devconsole.engine-pool.max-size:4}") int enginePoolMaxSize,
+                                @Value("${bootman.devconsole.engine-pool.borrow-timeout-millis:10000}") long borrowTimeoutMillis,
+                                @Value("${bootman.devconsole.javascript.backend:auto}") String javaScriptBackend,
+                                @Value("${bootman.devconsole.javascript.source-cache-size:256}") int sourceCacheSize) {
+        this.compiledScriptCache = compiledScriptCache;
+        this.scriptJobService = scriptJobService;
+        this.streamingResultWriter = streamingResultWriter;
+        this.scriptResourceMonitor = scriptResourceMonitor;
         ScriptEngineManager manager = new ScriptEngineManager();
-        // create a map of ScriptEngines with the key being the supported languages
-        Map<Language, ScriptEngine> scriptingEngines = new LinkedHashMap<>();
+        // create a map of ScriptEngine pools with the key being the supported languages
+        Map<Language, ScriptEnginePool> scriptingEnginePools = new LinkedHashMap<>();
         Arrays.stream(Language.values()).forEach(language -> {
-            scriptingEngines.put(language, manager.getEngineByName(language.name()));
+            scriptingEnginePools.put(language, new ScriptEnginePool(language.name(), manager, enginePoolMaxSize, borrowTimeoutMillis));
         });
-        this.scriptingEngines = ImmutableMap.copyOf(scriptingEngines);
+        this.scriptingEnginePools = ImmutableMap.copyOf(scriptingEnginePools);
+        ScriptBackend javaScript = ScriptBackends.javaScript(javaScriptBackend, enginePoolMaxSize, borrowTimeoutMillis, sourceCacheSize);
+        this.scriptBackends = javaScript != null ? ImmutableMap.of(Language.JavaScript, javaScript) : ImmutableMap.of();
     }
 
-    @ApiOperation("execute code written in one of the supported scripting languages")
+    @ApiOperation("execute code written in one of the supported scripting languages. The CPU time and bytes allocated by the script " +
+            "are returned in the X-Bootman-Cpu-Millis and X-Bootman-Allocated-Bytes headers")
     @RequestMapping(value = "/execute/{language}", method = RequestMethod.POST)
     public Object executeCode(@RequestBody String code, @PathVariable Language language) {
+        Object result = execute(code, language);
+        logger.info("\nresult: \n#########\n{}\n#########\n", result);
+        return result;
+    }
+
+    /**
+     * Runs the script and returns its result, without logging it. Rendering a large collection for the log would
+     * build it as a single String first.
+     */
+    private Object execute(String code, Language language) {
+            ScriptResourceMonitor.Execution execution = scriptResourceMonitor.start(language.name(), code);
+            Object result;
             try {
                 logger.info("\nexecuting code in {}:\n#########\n{} \n#########\n", language, code);
-                Object result = scriptingEngines.get(language).eval(code);
-                logger.info("\nresult: \n#########\n{}\n#########\n", result);
-                return result;
+                ScriptBackend backend = scriptBackends.get(language);
+                if (backend != null) {
+                    result = backend.execute(code, beanBindings);
+                } else {
+                    ScriptEnginePool pool = scriptingEnginePools.get(language);
+                    ScriptEnginePool.PooledEngine pooledEngine = pool.borrow();
+                    try {
+                        ScriptEngine engine = pooledEngine.getEngine();
+                        //every execution gets its own context, so concurrent scripts do not overwrite each other's variables
+                        ScriptContext scriptContext = pooledEngine.newContext(beanBindings);
+                        //reuse the compiled form of the snippet if the engine supports compilation, else evaluate it as before
+                        CompiledScript compiledScript = compiledScriptCache.getOrCompile(language.name(), pooledEngine.getCacheScope(), engine, code);
+                        result = compiledScript != null ? compiledScript.eval(scriptContext) : engine.eval(code, scriptContext);
+                    } finally {
+                        pool.release(pooledEngine);
+                    }
+                }
             } catch (Exception ex) {
+                ScriptUsage usage = execution.finish(ex);
+                if (usage.isAborted()) {
+                    throw new IllegalStateException(usage.getError(), ex);
+                }
                 // fail the execution.
                 logger.error("Error encountered while executing code " + code, ex);
                 throw new RuntimeException(ex);
+            } catch (Error ex) {
+                //e.g. a StackOverflowError of a recursive snippet. Left running, the execution would stay current on this
+                //worker thread and the watchdog would go on measuring, and eventually interrupt, whatever it serves next.
+                execution.finish(ex);
+                logger.error("Error encountered while executing code " + code, ex);
+                throw ex;
             }
+            ScriptUsage usage = execution.finish(null);
+            if (usage.isAborted()) {
+                //the script ignored the interrupt and finished anyway. Its result is dropped all the same.
+                throw new IllegalStateException(usage.getError());
+            }
+            addUsageHeaders(usage);
+            return result;
     }
 
-    @ApiOperation("get Context for a specified scripting language engine")
+    @ApiOperation("execute code and stream the result as newline delimited JSON. Iterable, Iterator, Stream and array results are " +
+            "written one element per line, optionally paginated by page/limit or offset/limit and capped at maxBytes. The last line summarizes the page, " +
+            "with the nextOffset to continue from and the elements skipped for being larger than maxBytes on their own")
+    @RequestMapping(value = "/execute/{language}/stream", method = RequestMethod.POST, produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> executeCodeStreaming(@RequestBody String code, @PathVariable Language language,
+                                                                      @RequestParam(value = "page", required = false, defaultValue = "0") long page,
+                                                                      @RequestParam(value = "offset", required = false, defaultValue = "-1") long offset,
+                                                                      @RequestParam(value = "limit", required = false, defaultValue = "0") int limit,
+                                                                      @RequestParam(value = "maxBytes", required = false, defaultValue = "0") long maxBytes) {
+        //StreamingResultWriter logs the number of elements and bytes written
+        Object result = execute(code, language);
+        logger.info("streaming a result of type {}", result != null ? result.getClass().getName() : null);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(streamingResultWriter.stream(result, page, offset, limit, maxBytes));
+    }
+
+    @ApiOperation("submit code for asynchronous execution on the dedicated script job executor. Returns the job with its id right away")
+    @RequestMapping(value = "/jobs/{language}", method = RequestMethod.POST)
+    public ScriptJob submitJob(@RequestBody String code, @PathVariable Language language,
+                               @RequestParam(value = "timeoutSeconds", required = false, defaultValue = "0") long timeoutSeconds) {
+        return scriptJobService.submit(language.name(), timeoutSeconds, () -> executeCode(code, language));
+    }
+
+    @ApiOperation("list the running and recently finished script jobs")
+    @RequestMapping(value = "/jobs", method = RequestMethod.GET)
+    public Collection<ScriptJob> listJobs() {
+        return scriptJobService.list();
+    }
+
+    @ApiOperation("poll the status and result of a script job")
+    @RequestMapping(value = "/jobs/{id}", method = RequestMethod.GET, produces = "application/json")
+    public ScriptJob getJob(@PathVariable String id) {
+        return scriptJobService.get(id);
+    }
+
+    @ApiOperation("wait for a script job to finish, up to waitMillis, without holding a servlet thread while waiting")
+    @RequestMapping(value = "/jobs/{id}/await", method = RequestMethod.GET, produces = "application/json")
+    public DeferredResult<ScriptJob> awaitJob(@PathVariable String id,
+                                              @RequestParam(value = "waitMillis", required = false, defaultValue = "30000") long waitMillis) {
+        ScriptJob job = scriptJobService.get(id);
+        //if the job is still running once waitMillis has passed, respond with its current status
+        DeferredResult<ScriptJob> deferredResult = new DeferredResult<>(waitMillis, () -> job);
+        job.getCompletion().thenAccept(deferredResult::setResult);
+        return deferredResult;
+    }
+
+    @ApiOperation("cancel a queued or running script job")
+    @RequestMapping(value = "/jobs/{id}", method = RequestMethod.DELETE, produces = "application/json")
+    public ScriptJob cancelJob(@PathVariable String id) {
+        return scriptJobService.cancel(id);
+    }
+
+    @ApiOperation("list the recent script executions, the most expensive ones by cpu, allocated or wall time first")
+    @RequestMapping(value = "/executions", method = RequestMethod.GET)
+    public List<ScriptUsage> listExecutions(@RequestParam(value = "sortBy", required = false, defaultValue = "cpu") ScriptResourceMonitor.Cost sortBy,
+                                            @RequestParam(value = "limit", required = false, defaultValue = "20") int limit) {
+        return scriptResourceMonitor.history(sortBy, limit);
+    }
+
+    @ApiOperation("list the scripts running right now with the CPU time and bytes they have used so far")
+    @RequestMapping(value = "/executions/running", method = RequestMethod.GET)
+    public List<ScriptUsage> listRunningExecutions() {
+        return scriptResourceMonitor.running();
+    }
+
+    @ApiOperation("get hit/miss/eviction and compile time statistics of the compiled script cache")
+    @RequestMapping(value = "/scriptCache/stats", method = RequestMethod.GET)
+    public CompiledScriptCache.CacheStatistics getScriptCacheStatistics() {
+        return compiledScriptCache.getStatistics();
+    }
+
+    @ApiOperation("evict all compiled scripts from the compiled script cache")
+    @RequestMapping(value = "/scriptCache/clear", method = RequestMethod.GET)
+    public String clearScriptCache() {
+        logger.info("clearing the compiled script cache");
+        compiledScriptCache.invalidateAll();
+        return "compiled script cache cleared";
+    }
+
+    @ApiOperation("get size, usage and wait time statistics of the scripting engine pools")
+    @RequestMapping(value = "/enginePool/stats", method = RequestMethod.GET)
+    public Map<Language, ScriptEnginePool.PoolStatistics> getEnginePoolStatistics() {
+        Map<Language, ScriptEnginePool.PoolStatistics> statistics = new LinkedHashMap<>();
+        scriptingEnginePools.forEach((language, pool) -> statistics.put(language, pool.getStatistics()));
+        return statistics;
+    }
+
+    @ApiOperation("get the statistics of the languages which do not run on a JSR-223 engine, e.g. JavaScript on GraalJS")
+    @RequestMapping(value = "/backends/stats", method = RequestMethod.GET)
+    public Map<Language, Object> getBackendStatistics() {
+        Map<Language, Object> statistics = new LinkedHashMap<>();
+        scriptBackends.forEach((language, backend) -> statistics.put(language, backend.getStatistics()));
+        return statistics;
+    }
+
+    @PreDestroy
+    public void closeBackends() {
+        scriptBackends.values().forEach(ScriptBackend::close);
+    }
+
+    @ApiOperation("get the shared Context available to every script of a specified scripting language")
     @RequestMapping(value = "/context/{language}", method = RequestMethod.GET)
     public Set<String> getContext(@PathVariable Language language) {
         try {
             logger.info("get context for language {}", language);
-            Bindings result = scriptingEngines.get(language).getContext().getBindings(ScriptContext.ENGINE_SCOPE);
+            //all languages share the same read-only bean context. Variables written by scripts are private to their execution.
+            Set<String> result = new TreeSet<>(beanBindings.keySet());
             logger.info("result: " + result);
-            return result.keySet();
+            return result;
         } catch (Exception ex) {
             // fail the execution.
             logger.error("Error encountered while finding context for language " + language, ex);
@@ -69,7 +254,7 @@ public class DevConsoleController implements ApplicationContextAware, Applicatio
     public String checkKeyPresentInContext(@PathVariable Language language, @PathVariable String key) {
         try {
             logger.info("get context for language {} and key {}", language, key);
-            Object result = scriptingEngines.get(language).getContext().getBindings(ScriptContext.ENGINE_SCOPE).get(key);
+            Object result = beanBindings.get(key);
             logger.info("result: " + result);
             return Objects.toString(result);
         } catch (Exception ex) {
@@ -80,24 +265,20 @@ public class DevConsoleController implements ApplicationContextAware, Applicatio
     }
 
 
-    @Override
-    public void onApplicationEvent(ApplicationReadyEvent event) {
-        // get the list of all Spring beans once application has started up and then add these beans in the scripting engine context
-        String[] allBeanNames = context.getBeanDefinitionNames();
-        for(String beanName : allBeanNames) {
-            try {
-                //store the bean definition registry in all supported Scripting Engines
-                Arrays.stream(Language.values()).forEach(language -> {this.scriptingEngines.get(language).put(beanName, context.getBean(beanName));});
-            } catch (BeanCreationException ex) {
-                logger.error("ignoring error  while trying to store the bean " + beanName);
-            }
+    private static void addUsageHeaders(ScriptUsage usage) {
+        //script jobs run outside of any request
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        HttpServletResponse response = attributes instanceof ServletRequestAttributes ? ((ServletRequestAttributes) attributes).getResponse() : null;
+        if (response != null && !response.isCommitted()) {
+            response.setHeader("X-Bootman-Cpu-Millis", String.valueOf(usage.getCpuTimeMillis()));
+            response.setHeader("X-Bootman-Allocated-Bytes", String.valueOf(usage.getAllocatedBytes()));
         }
     }
 
     @Override
     public void setApplicationContext(ApplicationContext context) throws BeansException {
-        // store ApplicationContext reference to access required beans later on
-        this.context = context;
+        // keep the ApplicationContext around to access required beans later on. Beans are only looked up once a script uses them.
+        this.beanBindings = new SpringBeanBindings(context);
     }
 
     // List of JSR-223 compliant supported languages in Dev Console. Additional scripting languages can be added by adding their
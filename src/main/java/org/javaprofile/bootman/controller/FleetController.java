@@ -0,0 +1,82 @@
+package org.javaprofile.bootman.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.javaprofile.bootman.fleet.FleetCoordinator;
+import org.javaprofile.bootman.fleet.FleetOperation;
+import org.javaprofile.bootman.management.ManagementEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@ManagementEndpoint
+@RequestMapping(value="/fleet")
+@Api(value="/fleet", tags={"Fleet Controller"},  produces ="application/json")
+public class FleetController {
+    private static final Logger logger = LoggerFactory.getLogger(FleetController.class);
+    // parameters of the fan-out itself. Everything else is passed on to the peers.
+    private static final String PEERS = "peers";
+    private static final String TIMEOUT_MILLIS = "timeoutMillis";
+    private static final String ROLLBACK = "rollback";
+    private final FleetCoordinator fleetCoordinator;
+
+    public FleetController(FleetCoordinator fleetCoordinator) {
+        this.fleetCoordinator = fleetCoordinator;
+    }
+
+    @ApiOperation("add/update Byteman Rules on all peers in parallel. peers is a comma separated list of base URLs, bootman.fleet.peers by default. " +
+            "Other parameters like samplingRate are passed on to addRules. With rollback the rules replaced on a peer are recorded first, and restored on all peers if any of them fails, while rules added by the call are deleted again")
+    @RequestMapping(value = "/addRules", method = RequestMethod.POST)
+    public FleetCoordinator.FleetResult addRules(@RequestBody String rule,
+                                                 @RequestParam(value = PEERS, required = false) String peers,
+                                                 @RequestParam(value = TIMEOUT_MILLIS, required = false, defaultValue = "0") long timeoutMillis,
+                                                 @RequestParam(value = ROLLBACK, required = false, defaultValue = "false") boolean rollback,
+                                                 @RequestParam Map<String, String> parameters) {
+        logger.info("rules to be added on the fleet:\n {}", rule);
+        return fleetCoordinator.fanOut(FleetOperation.addRules, null, peers, rule, passedOn(parameters), timeoutMillis, rollback);
+    }
+
+    @ApiOperation("delete Byteman Rules on all peers in parallel")
+    @RequestMapping(value = "/deleteRules", method = RequestMethod.POST)
+    public FleetCoordinator.FleetResult deleteRules(@RequestBody String rule,
+                                                    @RequestParam(value = PEERS, required = false) String peers,
+                                                    @RequestParam(value = TIMEOUT_MILLIS, required = false, defaultValue = "0") long timeoutMillis) {
+        logger.info("rules to be deleted on the fleet:\n {}", rule);
+        return fleetCoordinator.fanOut(FleetOperation.deleteRules, null, peers, rule, null, timeoutMillis, false);
+    }
+
+    @ApiOperation("list the installed Byteman Rules of all peers")
+    @RequestMapping(value = "/listAllRules", method = RequestMethod.GET)
+    public FleetCoordinator.FleetResult listAllRules(@RequestParam(value = PEERS, required = false) String peers,
+                                                     @RequestParam(value = TIMEOUT_MILLIS, required = false, defaultValue = "0") long timeoutMillis) {
+        return fleetCoordinator.fanOut(FleetOperation.listAllRules, null, peers, null, null, timeoutMillis, false);
+    }
+
+    @ApiOperation("execute code on the dev console of all peers in parallel")
+    @RequestMapping(value = "/execute/{language}", method = RequestMethod.POST)
+    public FleetCoordinator.FleetResult executeCode(@RequestBody String code, @PathVariable DevConsoleController.Language language,
+                                                    @RequestParam(value = PEERS, required = false) String peers,
+                                                    @RequestParam(value = TIMEOUT_MILLIS, required = false, defaultValue = "0") long timeoutMillis) {
+        logger.info("\nexecuting code in {} on the fleet:\n#########\n{} \n#########\n", language, code);
+        return fleetCoordinator.fanOut(FleetOperation.execute, language.name(), peers, code, null, timeoutMillis, false);
+    }
+
+    @ApiOperation("list the configured peers")
+    @RequestMapping(value = "/peers", method = RequestMethod.GET)
+    public List<String> peers() {
+        return fleetCoordinator.getDefaultPeers();
+    }
+
+    private static Map<String, String> passedOn(Map<String, String> parameters) {
+        Map<String, String> passedOn = new LinkedHashMap<>(parameters);
+        passedOn.remove(PEERS);
+        passedOn.remove(TIMEOUT_MILLIS);
+        passedOn.remove(ROLLBACK);
+        return passedOn;
+    }
+}
@@ -0,0 +1,75 @@
+package org.javaprofile.bootman.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.javaprofile.bootman.jfr.JfrRecordings;
+import org.javaprofile.bootman.management.ManagementEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.file.Path;
+import java.util.List;
+
+@RestController
+@ManagementEndpoint
+@RequestMapping(value="/jfr")
+@Api(value="/jfr", tags={"JFR Controller"},  produces ="application/json")
+public class JfrController {
+    private static final Logger logger = LoggerFactory.getLogger(JfrController.class);
+    private final JfrRecordings jfrRecordings;
+
+    public JfrController(JfrRecordings jfrRecordings) {
+        this.jfrRecordings = jfrRecordings;
+    }
+
+    @ApiOperation("start a JFR recording with the default or profile settings. Rules can add their own events to it through jfrEvent, jfrMethodEnter/jfrMethodExit and jfrArguments. Without durationSeconds it records until stopped")
+    @RequestMapping(value = "/start", method = RequestMethod.GET)
+    public JfrRecordings.RecordingInfo start(@RequestParam(value = "name", required = false, defaultValue = "bootman") String name,
+                                             @RequestParam(value = "settings", required = false, defaultValue = "default") String settings,
+                                             @RequestParam(value = "durationSeconds", required = false, defaultValue = "0") long durationSeconds,
+                                             @RequestParam(value = "maxAgeSeconds", required = false, defaultValue = "0") long maxAgeSeconds,
+                                             @RequestParam(value = "maxSizeMb", required = false, defaultValue = "0") long maxSizeMb) {
+        return jfrRecordings.start(name, settings, durationSeconds, maxAgeSeconds, maxSizeMb);
+    }
+
+    @ApiOperation("stop a JFR recording. Its data is kept for dumping until it is closed")
+    @RequestMapping(value = "/stop", method = RequestMethod.GET)
+    public JfrRecordings.RecordingInfo stop(@RequestParam(value = "id") long id) {
+        return jfrRecordings.stop(id);
+    }
+
+    @ApiOperation("close a JFR recording, stopping it if needed, and delete its data")
+    @RequestMapping(value = "/close", method = RequestMethod.GET)
+    public JfrRecordings.RecordingInfo close(@RequestParam(value = "id") long id) {
+        return jfrRecordings.close(id);
+    }
+
+    @ApiOperation("list the JFR recordings started through bootman")
+    @RequestMapping(value = "/recordings", method = RequestMethod.GET)
+    public List<JfrRecordings.RecordingInfo> recordings() {
+        return jfrRecordings.list();
+    }
+
+    @ApiOperation("download what a JFR recording holds so far as a .jfr file, streamed in chunks. Works for running recordings as well")
+    @RequestMapping(value = "/dump", method = RequestMethod.GET, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> dump(@RequestParam(value = "id") long id) {
+        try {
+            JfrRecordings.RecordingInfo info = jfrRecordings.info(id);
+            //dump before answering, so that a failing dump still ends up as an error response
+            Path dump = jfrRecordings.dump(id);
+            logger.info("streaming dump of JFR recording {} with {} bytes", id, dump.toFile().length());
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + info.getName().replaceAll("[^\\w.-]", "_") + "-" + id + ".jfr\"")
+                    .body(outputStream -> jfrRecordings.stream(dump, outputStream));
+        } catch (java.io.IOException ex) {
+            logger.error("Error encountered while dumping JFR recording " + id, ex);
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.javaprofile.bootman.devconsole;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of {@link CompiledScript} objects for scripting engines which implement {@link Compilable}.
+ * Runbooks tend to send the same snippets over and over again. Without this cache, every execution makes the engine
+ * re-parse the snippet and (in case of Groovy) generate a brand new class for it.
+ */
+@Component
+public class CompiledScriptCache {
+    private static final Logger logger = LoggerFactory.getLogger(CompiledScriptCache.class);
+    private final Cache<ScriptKey, CompiledScript> cache;
+    private final long maximumSize;
+    private final long expireAfterAccessSeconds;
+
+    public CompiledScriptCache(@Value("${bootman.devconsole.script-cache.maximum-size:256}") long maximumSize,
+                               @Value("${bootman.devconsole.script-cache.expire-after-access-seconds:600}") long expireAfterAccessSeconds) {
+        this.maximumSize = maximumSize;
+        this.expireAfterAccessSeconds = expireAfterAccessSeconds;
+        // entries are evicted once the cache grows beyond maximumSize or once a snippet has not been used for a while.
+        // recordStats() gives us hit/miss/eviction counters and the total time spent in compiling the snippets.
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(Duration.ofSeconds(expireAfterAccessSeconds))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the compiled form of the code for the given language, compiling it on a cache miss.
+     * Compiled scripts are only shared between engines with the same engineScope (see
+     * {@link ScriptEnginePool.PooledEngine#getCacheScope()}).
+     * Returns null if the engine does not implement {@link Compilable}. Callers should fall back to
+     * {@link ScriptEngine#eval(String, javax.script.ScriptContext)} in that case.
+     */
+    public CompiledScript getOrCompile(String language, String engineScope, ScriptEngine engine, String code) throws ScriptException {
+        if (!(engine instanceof Compilable)) {
+            return null;
+        }
+        ScriptKey key = new ScriptKey(language, engineScope, hash(code));
+        try {
+            return cache.get(key, () -> {
+                logger.info("compiling code in {} for script cache key {}", language, key.getCodeHash());
+                return ((Compilable) engine).compile(code);
+            });
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError ex) {
+            // unwrap the compilation error so that the caller sees the same exception as with a plain eval
+            if (ex.getCause() instanceof ScriptException) {
+                throw (ScriptException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(cache.size(), maximumSize, expireAfterAccessSeconds, cache.stats());
+    }
+
+    private String hash(String code) {
+        return Hashing.sha256().hashString(code, StandardCharsets.UTF_8).toString();
+    }
+
+    private static final class ScriptKey {
+        private final String language;
+        private final String engineScope;
+        private final String codeHash;
+
+        private ScriptKey(String language, String engineScope, String codeHash) {
+            this.language = language;
+            this.engineScope = engineScope;
+            this.codeHash = codeHash;
+        }
+
+        public String getCodeHash() {
+            return codeHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ScriptKey)) {
+                return false;
+            }
+            ScriptKey that = (ScriptKey) o;
+            return language.equals(that.language) && engineScope.equals(that.engineScope) && codeHash.equals(that.codeHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(language, engineScope, codeHash);
+        }
+    }
+
+    public static class CacheStatistics {
+        private final long size;
+        private final long maximumSize;
+        private final long expireAfterAccessSeconds;
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long compileCount;
+        private final long compileFailureCount;
+        private final long totalCompileTimeMillis;
+        private final double averageCompileTimeMillis;
+
+        public CacheStatistics(long size, long maximumSize, long expireAfterAccessSeconds, CacheStats stats) {
+            this.size = size;
+            this.maximumSize = maximumSize;
+            this.expireAfterAccessSeconds = expireAfterAccessSeconds;
+            this.hitCount = stats.hitCount();
+            this.missCount = stats.missCount();
+            this.evictionCount = stats.evictionCount();
+            this.compileCount = stats.loadSuccessCount();
+            this.compileFailureCount = stats.loadExceptionCount();
+            this.totalCompileTimeMillis = TimeUnit.NANOSECONDS.toMillis(stats.totalLoadTime());
+            this.averageCompileTimeMillis = stats.averageLoadPenalty() / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getMaximumSize() {
+            return maximumSize;
+        }
+
+        public long getExpireAfterAccessSeconds() {
+            return expireAfterAccessSeconds;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        public long getCompileCount() {
+            return compileCount;
+        }
+
+        public long getCompileFailureCount() {
+            return compileFailureCount;
+        }
+
+        public long getTotalCompileTimeMillis() {
+            return totalCompileTimeMillis;
+        }
+
+        public double getAverageCompileTimeMillis() {
+            return averageCompileTimeMillis;
+        }
+    }
+}
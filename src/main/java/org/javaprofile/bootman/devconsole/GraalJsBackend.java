@@ -0,0 +1,213 @@
+package org.javaprofile.bootman.devconsole;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.Bindings;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs JavaScript on GraalJS. All contexts share one polyglot {@link Engine}, which keeps the parsed and, on a JVM
+ * with the Graal compiler, the compiled form of every {@link Source}. Sources are cached by the hash of their code, so
+ * a snippet sent again skips parsing on any context of the pool.
+ * <p>
+ * A context runs one script at a time. The beans are visible through a with statement around the script, resolved
+ * lazily as in the JSR-223 engines. Creating a context takes milliseconds, so contexts are reused, but only by scripts
+ * which left the global scope as they found it. A script declaring top level vars or functions, assigning an
+ * undeclared variable or replacing a global has its context closed, so variables written by a script stay private to
+ * its execution.
+ */
+class GraalJsBackend implements ScriptBackend {
+    private static final Logger logger = LoggerFactory.getLogger(GraalJsBackend.class);
+    private static final String LANGUAGE = "js";
+    private static final String BEANS = "bootmanBeans";
+    private static final int MAX_RESULT_DEPTH = 8;
+    //returns a function telling whether the global scope still has the names and values it had when this ran
+    private static final String GLOBALS_UNCHANGED = "(function (global) {\n"
+            + "  var names = Object.getOwnPropertyNames;\n"
+            + "  var initial = names(global), values = initial.map(function (name) { return global[name]; });\n"
+            + "  function same(a, b) { return a === b || (a !== a && b !== b); }\n"
+            + "  return function () {\n"
+            + "    var current = names(global);\n"
+            + "    if (current.length !== initial.length) return false;\n"
+            + "    for (var i = 0; i < initial.length; i++) {\n"
+            + "      if (current[i] !== initial[i] || !same(global[initial[i]], values[i])) return false;\n"
+            + "    }\n"
+            + "    return true;\n"
+            + "  };\n"
+            + "})(this)";
+
+    private final Engine engine;
+    private final int maxContexts;
+    private final long borrowTimeoutMillis;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledContext> idleContexts = new LinkedBlockingDeque<>();
+    private final AtomicInteger createdCount = new AtomicInteger();
+    private final AtomicInteger discardedCount = new AtomicInteger();
+    private final Cache<String, Source> sources;
+
+    GraalJsBackend(int maxContexts, long borrowTimeoutMillis, int sourceCacheSize) {
+        // without the Graal compiler GraalJS interprets only. That is still what we want, so do not warn about it on every start.
+        this.engine = Engine.newBuilder().option("engine.WarnInterpreterOnly", "false").build();
+        this.maxContexts = maxContexts;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.permits = new Semaphore(maxContexts, true);
+        this.sources = CacheBuilder.newBuilder().maximumSize(sourceCacheSize).recordStats().build();
+        logger.info("JavaScript runs on GraalJS with up to {} contexts", maxContexts);
+    }
+
+    @Override
+    public Object execute(String code, Bindings beanBindings) throws Exception {
+        Source source = source(code);
+        if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException(String.format("timed out after %d ms waiting for a GraalJS context. All %d contexts are busy.",
+                    borrowTimeoutMillis, maxContexts));
+        }
+        PooledContext pooled = idleContexts.pollFirst();
+        boolean reusable = false;
+        try {
+            if (pooled == null) {
+                pooled = createContext(beanBindings);
+            }
+            // values belong to their context. Copy the result out while the context is still ours.
+            Object result = toJava(pooled.context.eval(source), 0);
+            reusable = globalsUnchanged(pooled);
+            return result;
+        } catch (PolyglotException ex) {
+            //a script error leaves the context usable, a cancelled or broken context is not
+            reusable = pooled != null && ex.isGuestException() && !ex.isCancelled() && !ex.isExit() && globalsUnchanged(pooled);
+            throw ex;
+        } finally {
+            if (pooled != null && reusable) {
+                idleContexts.offerFirst(pooled);
+            } else if (pooled != null) {
+                pooled.context.close(true);
+            }
+            permits.release();
+        }
+    }
+
+    private boolean globalsUnchanged(PooledContext pooled) {
+        try {
+            if (pooled.globalsUnchanged.execute().asBoolean()) {
+                return true;
+            }
+        } catch (PolyglotException ex) {
+            logger.debug("cannot check the globals of a GraalJS context", ex);
+        }
+        discardedCount.incrementAndGet();
+        return false;
+    }
+
+    private Source source(String code) throws ExecutionException {
+        String hash = Hashing.sha256().hashString(code, StandardCharsets.UTF_8).toString();
+        //the script keeps its line numbers in error messages as the with statement starts on its first line
+        return sources.get(hash, () -> Source.newBuilder(LANGUAGE, "with (" + BEANS + ") {" + code + "\n}", "devConsole-" + hash.substring(0, 8) + ".js")
+                .cached(true)
+                .buildLiteral());
+    }
+
+    private PooledContext createContext(Bindings beanBindings) {
+        //same reach as Nashorn scripts have, including bean properties like helloController.class
+        Context context = Context.newBuilder(LANGUAGE)
+                .engine(engine)
+                .allowAllAccess(true)
+                .allowExperimentalOptions(true)
+                .option("js.nashorn-compat", "true")
+                .build();
+        context.getBindings(LANGUAGE).putMember(BEANS, ProxyObject.fromMap(beanBindings));
+        Value globalsUnchanged = context.eval(LANGUAGE, GLOBALS_UNCHANGED);
+        logger.info("created GraalJS context #{}", createdCount.incrementAndGet());
+        return new PooledContext(context, globalsUnchanged);
+    }
+
+    private static Object toJava(Value value, int depth) {
+        if (value.isNull()) {
+            return null;
+        }
+        if (value.isHostObject()) {
+            return value.asHostObject();
+        }
+        if (value.isString()) {
+            return value.asString();
+        }
+        if (value.isBoolean()) {
+            return value.asBoolean();
+        }
+        if (value.isNumber()) {
+            return value.fitsInInt() ? (Object) value.asInt() : value.fitsInLong() ? (Object) value.asLong() : (Object) value.asDouble();
+        }
+        if (depth >= MAX_RESULT_DEPTH || value.canExecute()) {
+            return value.toString();
+        }
+        if (value.hasArrayElements()) {
+            List<Object> list = new ArrayList<>();
+            for (long i = 0; i < value.getArraySize(); i++) {
+                list.add(toJava(value.getArrayElement(i), depth + 1));
+            }
+            return list;
+        }
+        if (value.hasMembers()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (String key : value.getMemberKeys()) {
+                map.put(key, toJava(value.getMember(key), depth + 1));
+            }
+            return map;
+        }
+        return value.toString();
+    }
+
+    @Override
+    public Object getStatistics() {
+        CacheStats stats = sources.stats();
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("backend", "GraalJS");
+        statistics.put("maxContexts", maxContexts);
+        statistics.put("createdContexts", createdCount.get());
+        statistics.put("discardedContexts", discardedCount.get());
+        statistics.put("idleContexts", idleContexts.size());
+        statistics.put("busyContexts", maxContexts - permits.availablePermits());
+        statistics.put("cachedSources", sources.size());
+        statistics.put("sourceHitCount", stats.hitCount());
+        statistics.put("sourceMissCount", stats.missCount());
+        return statistics;
+    }
+
+    @Override
+    public void close() {
+        PooledContext pooled;
+        while ((pooled = idleContexts.pollFirst()) != null) {
+            pooled.context.close();
+        }
+        engine.close();
+    }
+
+    private static class PooledContext {
+        private final Context context;
+        private final Value globalsUnchanged;
+
+        private PooledContext(Context context, Value globalsUnchanged) {
+            this.context = context;
+            this.globalsUnchanged = globalsUnchanged;
+        }
+    }
+}
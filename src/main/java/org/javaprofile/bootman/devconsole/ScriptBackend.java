@@ -0,0 +1,19 @@
+package org.javaprofile.bootman.devconsole;
+
+import javax.script.Bindings;
+
+/**
+ * Runs dev console scripts of one language without going through JSR-223, e.g. on a polyglot engine. Languages
+ * without a backend run on the {@link ScriptEnginePool} of their JSR-223 engine.
+ */
+public interface ScriptBackend {
+
+    /**
+     * Runs the script with the shared beans in scope and returns its result as plain Java objects.
+     */
+    Object execute(String code, Bindings beanBindings) throws Exception;
+
+    Object getStatistics();
+
+    void close();
+}
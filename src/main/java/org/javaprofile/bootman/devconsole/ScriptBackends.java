@@ -0,0 +1,48 @@
+package org.javaprofile.bootman.devconsole;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the backend for JavaScript. The GraalJS classes are only touched once they are known to load, so that the
+ * application still starts on JVMs where they do not.
+ */
+public final class ScriptBackends {
+    private static final Logger logger = LoggerFactory.getLogger(ScriptBackends.class);
+
+    private ScriptBackends() {
+    }
+
+    /**
+     * Returns the GraalJS backend for "graaljs", and for "auto" if GraalJS is available. Returns null for "nashorn"
+     * and for "auto" without GraalJS, in which case JavaScript runs on the JSR-223 engine of the JDK.
+     */
+    public static ScriptBackend javaScript(String backend, int maxContexts, long borrowTimeoutMillis, int sourceCacheSize) {
+        switch (backend) {
+            case "nashorn":
+                return null;
+            case "auto":
+            case "graaljs":
+                if (!isGraalJsAvailable()) {
+                    if ("graaljs".equals(backend)) {
+                        throw new IllegalStateException("bootman.devconsole.javascript.backend is graaljs but GraalJS is not available in this JVM");
+                    }
+                    logger.info("GraalJS is not available. JavaScript runs on the JSR-223 engine of the JDK.");
+                    return null;
+                }
+                return new GraalJsBackend(maxContexts, borrowTimeoutMillis, sourceCacheSize);
+            default:
+                throw new IllegalArgumentException("unknown JavaScript backend " + backend + ". Use auto, graaljs or nashorn.");
+        }
+    }
+
+    private static boolean isGraalJsAvailable() {
+        try {
+            Class.forName("org.graalvm.polyglot.Engine");
+            Class.forName("com.oracle.truffle.js.lang.JavaScriptLanguage");
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.javaprofile.bootman.devconsole;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.transform.ThreadInterrupt;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.SimpleScriptContext;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of {@link ScriptEngine} instances for one scripting language. Engines are created lazily, up to
+ * maxSize, and handed out to one execution at a time. This lets scripts of engines which are not MULTITHREADED run in
+ * parallel instead of being serialized on a single shared engine.
+ */
+public class ScriptEnginePool {
+    private static final Logger logger = LoggerFactory.getLogger(ScriptEnginePool.class);
+    private static final String SHARED_CACHE_SCOPE = "shared";
+
+    private final String language;
+    private final ScriptEngineManager manager;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledEngine> idleEngines = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger createdCount = new AtomicInteger();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ScriptEnginePool(String language, ScriptEngineManager manager, int maxSize, long borrowTimeoutMillis) {
+        this.language = language;
+        this.manager = manager;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrows an engine from the pool, waiting up to borrowTimeoutMillis for one to become available.
+     * Every borrowed engine must be handed back through {@link #release(PooledEngine)}.
+     */
+    public PooledEngine borrow() throws InterruptedException {
+        long start = System.nanoTime();
+        boolean acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (!acquired) {
+            timeoutCount.increment();
+            throw new IllegalStateException(String.format("timed out after %d ms waiting for a %s scripting engine. All %d engines are busy.",
+                    borrowTimeoutMillis, language, maxSize));
+        }
+        borrowCount.increment();
+        PooledEngine pooledEngine = idleEngines.pollFirst();
+        if (pooledEngine == null) {
+            try {
+                pooledEngine = createEngine();
+            } catch (RuntimeException ex) {
+                permits.release();
+                throw ex;
+            }
+        }
+        return pooledEngine;
+    }
+
+    public void release(PooledEngine pooledEngine) {
+        idleEngines.offerFirst(pooledEngine);
+        permits.release();
+    }
+
+    private PooledEngine createEngine() {
+        ScriptEngine engine = "groovy".equals(language) ? interruptibleGroovyEngine() : manager.getEngineByName(language);
+        if (engine == null) {
+            throw new IllegalStateException("no JSR-223 scripting engine found for language " + language);
+        }
+        int id = createdCount.incrementAndGet();
+        // engines which can be shared across threads can share their compiled scripts as well. Compiled scripts of
+        // other engines must stay with the engine that compiled them.
+        String threading = (String) engine.getFactory().getParameter("THREADING");
+        boolean threadSafe = "MULTITHREADED".equals(threading) || "THREAD-ISOLATED".equals(threading) || "STATELESS".equals(threading);
+        String cacheScope = threadSafe ? SHARED_CACHE_SCOPE : "engine-" + id;
+        logger.info("created {} scripting engine #{} with THREADING {}", language, id, threading);
+        return new PooledEngine(engine, cacheScope);
+    }
+
+    /**
+     * Groovy engine compiling scripts with {@link ThreadInterrupt}, so that loops and method calls check the interrupt
+     * flag. Only then do cancelled, timed out or aborted scripts stop while busy.
+     */
+    private ScriptEngine interruptibleGroovyEngine() {
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        configuration.addCompilationCustomizers(new ASTTransformationCustomizer(ThreadInterrupt.class));
+        GroovyScriptEngineImpl engine = new GroovyScriptEngineImpl(new GroovyClassLoader(getClass().getClassLoader(), configuration));
+        engine.setBindings(manager.getBindings(), ScriptContext.GLOBAL_SCOPE);
+        return engine;
+    }
+
+    public PoolStatistics getStatistics() {
+        long borrowed = borrowCount.sum();
+        return new PoolStatistics(maxSize, createdCount.get(), idleEngines.size(), maxSize - permits.availablePermits(),
+                permits.getQueueLength(), borrowed, timeoutCount.sum(),
+                TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum()), TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+    }
+
+    public static class PooledEngine {
+        private final ScriptEngine engine;
+        private final String cacheScope;
+
+        private PooledEngine(ScriptEngine engine, String cacheScope) {
+            this.engine = engine;
+            this.cacheScope = cacheScope;
+        }
+
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * Scope under which compiled scripts of this engine may be shared in {@link CompiledScriptCache}.
+         */
+        public String getCacheScope() {
+            return cacheScope;
+        }
+
+        /**
+         * Creates a fresh context for a single execution. Variables written by the script end up in a private
+         * ENGINE_SCOPE while the shared beans are visible through the (read-only) GLOBAL_SCOPE.
+         */
+        public ScriptContext newContext(Bindings sharedBindings) {
+            ScriptContext scriptContext = new SimpleScriptContext();
+            scriptContext.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+            scriptContext.setBindings(sharedBindings, ScriptContext.GLOBAL_SCOPE);
+            return scriptContext;
+        }
+    }
+
+    public static class PoolStatistics {
+        private final int maxSize;
+        private final int createdCount;
+        private final int idleCount;
+        private final int inUseCount;
+        private final int waitingCount;
+        private final long borrowCount;
+        private final long timeoutCount;
+        private final long totalWaitTimeMillis;
+        private final long maxWaitTimeMillis;
+
+        public PoolStatistics(int maxSize, int createdCount, int idleCount, int inUseCount, int waitingCount,
+                              long borrowCount, long timeoutCount, long totalWaitTimeMillis, long maxWaitTimeMillis) {
+            this.maxSize = maxSize;
+            this.createdCount = createdCount;
+            this.idleCount = idleCount;
+            this.inUseCount = inUseCount;
+            this.waitingCount = waitingCount;
+            this.borrowCount = borrowCount;
+            this.timeoutCount = timeoutCount;
+            this.totalWaitTimeMillis = totalWaitTimeMillis;
+            this.maxWaitTimeMillis = maxWaitTimeMillis;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public int getCreatedCount() {
+            return createdCount;
+        }
+
+        public int getIdleCount() {
+            return idleCount;
+        }
+
+        public int getInUseCount() {
+            return inUseCount;
+        }
+
+        public int getWaitingCount() {
+            return waitingCount;
+        }
+
+        public long getBorrowCount() {
+            return borrowCount;
+        }
+
+        public long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        public long getTotalWaitTimeMillis() {
+            return totalWaitTimeMillis;
+        }
+
+        public long getMaxWaitTimeMillis() {
+            return maxWaitTimeMillis;
+        }
+
+        public double getAverageWaitTimeMillis() {
+            return borrowCount + timeoutCount == 0 ? 0 : (double) totalWaitTimeMillis / (borrowCount + timeoutCount);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.javaprofile.bootman.devconsole;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * A script submitted for asynchronous execution. The status moves from QUEUED to RUNNING and then to exactly one of
+ * the terminal states. Whoever gets to the terminal state first (the script itself, a cancel or the timeout watchdog)
+ * decides the outcome of the job.
+ */
+public class ScriptJob {
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED, TIMED_OUT;
+
+        private static final Set<Status> TERMINAL = EnumSet.of(SUCCEEDED, FAILED, CANCELLED, TIMED_OUT);
+
+        public boolean isTerminal() {
+            return TERMINAL.contains(this);
+        }
+    }
+
+    private final String id;
+    private final String language;
+    private final long timeoutMillis;
+    private final Instant submittedAt = Instant.now();
+    private final CompletableFuture<ScriptJob> completion = new CompletableFuture<>();
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile Object result;
+    private volatile String error;
+    private volatile Future<?> future;
+    private volatile ScriptUsage usage;
+
+    public ScriptJob(String id, String language, long timeoutMillis) {
+        this.id = id;
+        this.language = language;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    synchronized boolean markRunning() {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+        return true;
+    }
+
+    boolean succeed(Object result) {
+        return finish(Status.SUCCEEDED, result, null);
+    }
+
+    boolean fail(Status terminalStatus, String error) {
+        return finish(terminalStatus, null, error);
+    }
+
+    private boolean finish(Status terminalStatus, Object result, String error) {
+        synchronized (this) {
+            if (status.isTerminal()) {
+                return false;
+            }
+            // publish the outcome before the status, so that anybody seeing a terminal status sees the outcome too
+            this.result = result;
+            this.error = error;
+            finishedAt = Instant.now();
+            status = terminalStatus;
+        }
+        completion.complete(this);
+        return true;
+    }
+
+    void setUsage(ScriptUsage usage) {
+        this.usage = usage;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    @JsonIgnore
+    Future<?> getFuture() {
+        return future;
+    }
+
+    /**
+     * Completes once the job has reached a terminal state.
+     */
+    @JsonIgnore
+    public CompletableFuture<ScriptJob> getCompletion() {
+        return completion;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * CPU time and allocated bytes of the finished job.
+     */
+    public ScriptUsage getUsage() {
+        return usage;
+    }
+}
@@ -0,0 +1,203 @@
+package org.javaprofile.bootman.devconsole;
+
+import org.javaprofile.bootman.byteman.DebugRequests;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Runs dev console scripts asynchronously on a dedicated, bounded executor so that slow diagnostics can never pin the
+ * servlet worker threads serving application traffic. Every job gets a wall-clock timeout after which it is cancelled.
+ * Cancellation interrupts the script thread: scripts blocked in sleep/wait/IO stop right away, while a busy loop only
+ * stops once it checks the interrupt flag.
+ */
+@Component
+public class ScriptJobService {
+    private static final Logger logger = LoggerFactory.getLogger(ScriptJobService.class);
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService watchdog;
+    private final long defaultTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final int maxRetainedJobs;
+    private final boolean virtualThreads;
+    private final ScriptResourceMonitor resourceMonitor;
+    private final Map<String, ScriptJob> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> finishedJobIds = new ConcurrentLinkedQueue<>();
+
+    public ScriptJobService(ScriptResourceMonitor resourceMonitor,
+                            @Value("${bootman.devconsole.jobs.max-concurrent:2}") int maxConcurrent,
+                            @Value("${bootman.devconsole.jobs.queue-capacity:16}") int queueCapacity,
+                            @Value("${bootman.devconsole.jobs.default-timeout-seconds:60}") long defaultTimeoutSeconds,
+                            @Value("${bootman.devconsole.jobs.max-timeout-seconds:600}") long maxTimeoutSeconds,
+                            @Value("${bootman.devconsole.jobs.max-retained:100}") int maxRetainedJobs,
+                            @Value("${bootman.devconsole.jobs.virtual-threads:true}") boolean useVirtualThreads) {
+        this.resourceMonitor = resourceMonitor;
+        this.defaultTimeoutMillis = TimeUnit.SECONDS.toMillis(defaultTimeoutSeconds);
+        this.maxTimeoutMillis = TimeUnit.SECONDS.toMillis(maxTimeoutSeconds);
+        this.maxRetainedJobs = maxRetainedJobs;
+        ThreadFactory virtualThreadFactory = useVirtualThreads ? virtualThreadFactory() : null;
+        this.virtualThreads = virtualThreadFactory != null;
+        ThreadFactory threadFactory = virtualThreads ? virtualThreadFactory : platformThreadFactory("bootman-script-job-");
+        // the executor is bounded both in threads and in queued jobs. Anything beyond that is rejected instead of piling up.
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(platformThreadFactory("bootman-script-job-watchdog-"));
+        logger.info("script jobs run on {} {} threads with a queue of {}", maxConcurrent, virtualThreads ? "virtual" : "platform", queueCapacity);
+    }
+
+    /**
+     * Submits the script for asynchronous execution. A timeoutSeconds of 0 or less applies the default timeout.
+     */
+    public ScriptJob submit(String language, long timeoutSeconds, Callable<Object> script) {
+        long timeoutMillis = timeoutSeconds > 0 ? Math.min(TimeUnit.SECONDS.toMillis(timeoutSeconds), maxTimeoutMillis) : defaultTimeoutMillis;
+        ScriptJob job = new ScriptJob(UUID.randomUUID().toString(), language, timeoutMillis);
+        jobs.put(job.getId(), job);
+        try {
+            //rules limited to debug requests keep firing for scripts submitted while serving one
+            Callable<Object> tagged = DebugRequests.propagate(script);
+            job.setFuture(executor.submit(() -> run(job, tagged)));
+        } catch (RejectedExecutionException ex) {
+            jobs.remove(job.getId());
+            throw new IllegalStateException(String.format("script job queue is full. %d jobs are running and %d are waiting",
+                    executor.getActiveCount(), executor.getQueue().size()), ex);
+        }
+        logger.info("submitted script job {} in {} with timeout {} ms", job.getId(), language, timeoutMillis);
+        return job;
+    }
+
+    private void run(ScriptJob job, Callable<Object> script) {
+        if (!job.markRunning()) {
+            // cancelled while it was still waiting in the queue
+            return;
+        }
+        ScheduledFuture<?> timeout = watchdog.schedule(() -> expire(job), job.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        ScriptResourceMonitor.Execution execution = resourceMonitor.start(job.getLanguage(), null);
+        try {
+            Object result = script.call();
+            // publish the usage before the outcome, so that it is there once the job is seen as finished
+            ScriptUsage usage = execution.finish(null);
+            job.setUsage(usage);
+            if (usage.isAborted()) {
+                job.fail(ScriptJob.Status.FAILED, usage.getError());
+            } else {
+                job.succeed(result);
+            }
+        } catch (Throwable ex) {
+            ScriptUsage usage = execution.finish(ex);
+            job.setUsage(usage);
+            // a script interrupted by cancel/timeout usually fails here as well. The job keeps its CANCELLED/TIMED_OUT status.
+            if (job.fail(ScriptJob.Status.FAILED, usage.isAborted() ? usage.getError() : String.valueOf(ex.getCause() != null ? ex.getCause() : ex))) {
+                logger.warn("script job " + job.getId() + " failed", ex);
+            }
+        } finally {
+            timeout.cancel(false);
+            retire(job);
+        }
+    }
+
+    private void expire(ScriptJob job) {
+        if (job.fail(ScriptJob.Status.TIMED_OUT, "script exceeded its timeout of " + job.getTimeoutMillis() + " ms")) {
+            logger.warn("script job {} timed out after {} ms. Interrupting it.", job.getId(), job.getTimeoutMillis());
+            Future<?> future = job.getFuture();
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    public ScriptJob cancel(String id) {
+        ScriptJob job = get(id);
+        if (job.fail(ScriptJob.Status.CANCELLED, "cancelled on request")) {
+            logger.info("cancelling script job {}", id);
+            Future<?> future = job.getFuture();
+            if (future != null) {
+                future.cancel(true);
+            }
+            retire(job);
+        }
+        return job;
+    }
+
+    public ScriptJob get(String id) {
+        ScriptJob job = jobs.get(id);
+        if (job == null) {
+            throw new IllegalArgumentException("no script job found with id " + id);
+        }
+        return job;
+    }
+
+    public Collection<ScriptJob> list() {
+        return jobs.values().stream()
+                .sorted(Comparator.comparing(ScriptJob::getSubmittedAt).reversed())
+                .collect(Collectors.toList());
+    }
+
+    private void retire(ScriptJob job) {
+        // keep the outcome of the most recent jobs around for polling and forget about the older ones
+        if (!finishedJobIds.contains(job.getId())) {
+            finishedJobIds.add(job.getId());
+        }
+        while (finishedJobIds.size() > maxRetainedJobs) {
+            String oldest = finishedJobIds.poll();
+            if (oldest != null) {
+                jobs.remove(oldest);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<ScriptJob> pending = new ArrayList<>(jobs.values());
+        pending.forEach(job -> job.fail(ScriptJob.Status.CANCELLED, "bootman is shutting down"));
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    private static ThreadFactory platformThreadFactory(String prefix) {
+        AtomicLong counter = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns a factory for virtual threads if the running JDK supports them (JDK 21+), else null.
+     * Looked up reflectively as bootman is still compiled for Java 8.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "bootman-script-job-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            logger.info("virtual threads are not available in this JVM. Falling back to platform threads.");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package org.javaprofile.bootman.devconsole;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Accounts the CPU time and the bytes allocated by the thread running a script, using the per-thread counters of the
+ * {@link ThreadMXBean}. With max-cpu-millis or max-allocated-mb set, a watchdog checks the running scripts every
+ * check-interval-millis and aborts those over a limit: the script thread is interrupted and the result of the script
+ * is discarded, even if it manages to finish. Groovy scripts check the interrupt flag in every loop (see
+ * {@link ScriptEnginePool}) and so does GraalJS, while Nashorn only notices it when the script blocks.
+ * <p>
+ * The most recent executions are kept in a bounded history for finding the expensive ones.
+ */
+@Component
+public class ScriptResourceMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(ScriptResourceMonitor.class);
+    private static final int MAX_CODE_LENGTH = 200;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    // HotSpot's extension of the ThreadMXBean with the allocation counters, null if this JVM has none
+    private final com.sun.management.ThreadMXBean allocationMXBean;
+    private final long maxCpuNanos;
+    private final long maxAllocatedBytes;
+    private final int historySize;
+    private final ThreadLocal<Execution> current = new ThreadLocal<>();
+    private final Set<Execution> running = ConcurrentHashMap.newKeySet();
+    // guarded by itself
+    private final Deque<ScriptUsage> history = new ArrayDeque<>();
+    private final ScheduledExecutorService watchdog;
+
+    public ScriptResourceMonitor(@Value("${bootman.devconsole.limits.max-cpu-millis:0}") long maxCpuMillis,
+                                 @Value("${bootman.devconsole.limits.max-allocated-mb:0}") long maxAllocatedMb,
+                                 @Value("${bootman.devconsole.limits.check-interval-millis:100}") long checkIntervalMillis,
+                                 @Value("${bootman.devconsole.history.size:100}") int historySize) {
+        this.maxCpuNanos = TimeUnit.MILLISECONDS.toNanos(maxCpuMillis);
+        this.maxAllocatedBytes = maxAllocatedMb * 1024 * 1024;
+        this.historySize = historySize;
+        com.sun.management.ThreadMXBean allocationMXBean = null;
+        try {
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+                allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            }
+        } catch (LinkageError ex) {
+            logger.info("allocated bytes of scripts cannot be measured in this JVM");
+        }
+        this.allocationMXBean = allocationMXBean;
+        if (maxCpuNanos > 0 || maxAllocatedBytes > 0) {
+            this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bootman-script-limits-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watchdog.scheduleWithFixedDelay(this::checkLimits, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+            logger.info("scripts are aborted after {} ms of CPU time or {} MB allocated", maxCpuMillis > 0 ? maxCpuMillis : "unlimited",
+                    maxAllocatedMb > 0 ? maxAllocatedMb : "unlimited");
+        } else {
+            this.watchdog = null;
+        }
+    }
+
+    /**
+     * Starts accounting the script about to run on the current thread. Every execution must be finished on the same
+     * thread. An execution started while another one is running on the thread, e.g. a script job calling the dev
+     * console, is accounted as part of the outer one.
+     */
+    public Execution start(String language, String code) {
+        Execution outer = current.get();
+        if (outer != null) {
+            if (outer.code == null) {
+                outer.code = excerpt(code);
+            }
+            return new Execution(outer);
+        }
+        Execution execution = new Execution(language, excerpt(code));
+        current.set(execution);
+        running.add(execution);
+        return execution;
+    }
+
+    private void checkLimits() {
+        try {
+            for (Execution execution : running) {
+                long cpuNanos = execution.cpuNanos();
+                long allocatedBytes = execution.allocatedBytes();
+                if (maxCpuNanos > 0 && cpuNanos > maxCpuNanos) {
+                    execution.abort(String.format("script used %d ms of CPU time, more than the limit of %d ms",
+                            TimeUnit.NANOSECONDS.toMillis(cpuNanos), TimeUnit.NANOSECONDS.toMillis(maxCpuNanos)));
+                } else if (maxAllocatedBytes > 0 && allocatedBytes > maxAllocatedBytes) {
+                    execution.abort(String.format("script allocated %d MB, more than the limit of %d MB",
+                            allocatedBytes / 1024 / 1024, maxAllocatedBytes / 1024 / 1024));
+                }
+            }
+        } catch (Exception ex) {
+            logger.warn("Ignoring exception encountered while checking the limits of running scripts", ex);
+        }
+    }
+
+    /**
+     * Returns up to limit of the recent executions, the most expensive ones first.
+     */
+    public List<ScriptUsage> history(Cost cost, int limit) {
+        List<ScriptUsage> usages;
+        synchronized (history) {
+            usages = new ArrayList<>(history);
+        }
+        return usages.stream()
+                .sorted(Comparator.comparingLong(cost.measure).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns what the scripts running right now have used so far.
+     */
+    public List<ScriptUsage> running() {
+        return running.stream()
+                .map(execution -> execution.usage(ScriptUsage.Outcome.RUNNING, null))
+                .sorted(Comparator.comparing(ScriptUsage::getStartedAt))
+                .collect(Collectors.toList());
+    }
+
+    private void record(ScriptUsage usage) {
+        synchronized (history) {
+            history.addLast(usage);
+            while (history.size() > historySize) {
+                history.removeFirst();
+            }
+        }
+    }
+
+    private long threadCpuTime(long threadId) {
+        try {
+            return threadMXBean.isThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled() ? threadMXBean.getThreadCpuTime(threadId) : -1;
+        } catch (UnsupportedOperationException ex) {
+            return -1;
+        }
+    }
+
+    private long threadAllocatedBytes(long threadId) {
+        try {
+            return allocationMXBean != null && allocationMXBean.isThreadAllocatedMemoryEnabled() ? allocationMXBean.getThreadAllocatedBytes(threadId) : -1;
+        } catch (UnsupportedOperationException ex) {
+            return -1;
+        }
+    }
+
+    private static String excerpt(String code) {
+        if (code == null) {
+            return null;
+        }
+        String trimmed = code.trim();
+        return trimmed.length() > MAX_CODE_LENGTH ? trimmed.substring(0, MAX_CODE_LENGTH) + "..." : trimmed;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+    }
+
+    public enum Cost {
+        cpu(ScriptUsage::getCpuTimeMillis),
+        allocated(ScriptUsage::getAllocatedBytes),
+        wall(ScriptUsage::getWallTimeMillis);
+
+        private final ToLongFunction<ScriptUsage> measure;
+
+        Cost(ToLongFunction<ScriptUsage> measure) {
+            this.measure = measure;
+        }
+    }
+
+    public class Execution {
+        private final Execution outer;
+        private final String language;
+        private final Thread thread;
+        private final Instant startedAt = Instant.now();
+        private final long startNanos = System.nanoTime();
+        private final long startCpuNanos;
+        private final long startAllocatedBytes;
+        private volatile String code;
+        // guarded by this
+        private boolean finished;
+        private String abortReason;
+
+        private Execution(String language, String code) {
+            this.outer = null;
+            this.language = language;
+            this.code = code;
+            this.thread = Thread.currentThread();
+            this.startCpuNanos = threadCpuTime(thread.getId());
+            this.startAllocatedBytes = threadAllocatedBytes(thread.getId());
+        }
+
+        private Execution(Execution outer) {
+            this.outer = outer;
+            this.language = outer.language;
+            this.thread = outer.thread;
+            this.startCpuNanos = outer.startCpuNanos;
+            this.startAllocatedBytes = outer.startAllocatedBytes;
+        }
+
+        private long cpuNanos() {
+            long cpuNanos = threadCpuTime(thread.getId());
+            return cpuNanos < 0 || startCpuNanos < 0 ? -1 : cpuNanos - startCpuNanos;
+        }
+
+        private long allocatedBytes() {
+            long allocatedBytes = threadAllocatedBytes(thread.getId());
+            return allocatedBytes < 0 || startAllocatedBytes < 0 ? -1 : allocatedBytes - startAllocatedBytes;
+        }
+
+        private synchronized void abort(String reason) {
+            // once finished, the thread may be running something else which must not be interrupted
+            if (finished || abortReason != null) {
+                return;
+            }
+            abortReason = reason;
+            logger.warn("aborting {} script on thread {}: {}", language, thread.getName(), reason);
+            thread.interrupt();
+        }
+
+        /**
+         * Stops accounting and records the execution, unless it is part of an outer one. Check
+         * {@link ScriptUsage#isAborted()} before using the result of the script.
+         */
+        public ScriptUsage finish(Throwable failure) {
+            if (outer != null) {
+                // the outer execution is recorded once it finishes. Until then, report what it used so far.
+                return outer.usage(failure == null ? ScriptUsage.Outcome.SUCCEEDED : ScriptUsage.Outcome.FAILED, failure);
+            }
+            String aborted;
+            synchronized (this) {
+                finished = true;
+                aborted = abortReason;
+            }
+            running.remove(this);
+            current.remove();
+            if (aborted != null) {
+                // the interrupt may not have been noticed by the script. It must not hit the next task of the thread.
+                Thread.interrupted();
+            }
+            ScriptUsage usage = usage(failure == null ? ScriptUsage.Outcome.SUCCEEDED : ScriptUsage.Outcome.FAILED, failure);
+            record(usage);
+            return usage;
+        }
+
+        private ScriptUsage usage(ScriptUsage.Outcome outcome, Throwable failure) {
+            String aborted;
+            synchronized (this) {
+                aborted = abortReason;
+            }
+            long cpuNanos = cpuNanos();
+            return new ScriptUsage(language, code, thread.getName(), startedAt,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                    cpuNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(cpuNanos), allocatedBytes(),
+                    aborted != null ? ScriptUsage.Outcome.ABORTED : outcome,
+                    aborted != null ? aborted : failure != null ? String.valueOf(failure) : null);
+        }
+    }
+}
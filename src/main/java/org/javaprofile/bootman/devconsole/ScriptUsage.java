@@ -0,0 +1,82 @@
+package org.javaprofile.bootman.devconsole;
+
+import java.time.Instant;
+
+/**
+ * What a single script execution cost the thread it ran on. CPU time and allocated bytes are -1 if the JVM cannot
+ * measure them for that thread, e.g. for virtual threads.
+ */
+public class ScriptUsage {
+    public enum Outcome {
+        RUNNING, SUCCEEDED, FAILED, ABORTED
+    }
+
+    private final String language;
+    private final String code;
+    private final String threadName;
+    private final Instant startedAt;
+    private final long wallTimeMillis;
+    private final long cpuTimeMillis;
+    private final long allocatedBytes;
+    private final Outcome outcome;
+    private final String error;
+
+    ScriptUsage(String language, String code, String threadName, Instant startedAt, long wallTimeMillis,
+                long cpuTimeMillis, long allocatedBytes, Outcome outcome, String error) {
+        this.language = language;
+        this.code = code;
+        this.threadName = threadName;
+        this.startedAt = startedAt;
+        this.wallTimeMillis = wallTimeMillis;
+        this.cpuTimeMillis = cpuTimeMillis;
+        this.allocatedBytes = allocatedBytes;
+        this.outcome = outcome;
+        this.error = error;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * The beginning of the script.
+     */
+    public String getCode() {
+        return code;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public long getWallTimeMillis() {
+        return wallTimeMillis;
+    }
+
+    public long getCpuTimeMillis() {
+        return cpuTimeMillis;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Why the script failed or was aborted.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isAborted() {
+        return outcome == Outcome.ABORTED;
+    }
+}
@@ -0,0 +1,137 @@
+package org.javaprofile.bootman.devconsole;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+
+import javax.script.Bindings;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only {@link Bindings} exposing the Spring beans to the scripting engines. A bean is looked up in the
+ * {@link ApplicationContext} the first time a script accesses it, instead of instantiating every bean up front.
+ * Singletons are cached after their first lookup, beans of any other scope are resolved on every access.
+ * Listing the keys only reads bean names and never instantiates a bean.
+ */
+public class SpringBeanBindings extends AbstractMap<String, Object> implements Bindings {
+    private static final Logger logger = LoggerFactory.getLogger(SpringBeanBindings.class);
+    private final ApplicationContext context;
+    private final Map<String, Object> singletons = new ConcurrentHashMap<>();
+
+    public SpringBeanBindings(ApplicationContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String beanName = (String) key;
+        Object bean = singletons.get(beanName);
+        if (bean != null) {
+            return bean;
+        }
+        if (!context.containsBean(beanName)) {
+            return null;
+        }
+        try {
+            bean = context.getBean(beanName);
+        } catch (BeansException ex) {
+            logger.error("Error encountered while resolving the bean " + beanName + " for the script context", ex);
+            throw ex;
+        }
+        if (context.isSingleton(beanName)) {
+            singletons.putIfAbsent(beanName, bean);
+        }
+        return bean;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        // scripting engines call this for every unresolved variable, so this must stay a cheap name lookup
+        return key instanceof String && context.containsBean((String) key);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(context.getBeanDefinitionNames())));
+    }
+
+    @Override
+    public int size() {
+        return context.getBeanDefinitionCount();
+    }
+
+    /**
+     * Entries resolve their bean only when {@link Entry#getValue()} is called.
+     */
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        String[] beanNames = context.getBeanDefinitionNames();
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                Iterator<String> names = Arrays.asList(beanNames).iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return names.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        return new LazyEntry(names.next());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return beanNames.length;
+            }
+        };
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        throw new UnsupportedOperationException("Spring bean bindings are read-only. Cannot overwrite " + name);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        throw new UnsupportedOperationException("Spring bean bindings are read-only. Cannot remove " + key);
+    }
+
+    private class LazyEntry implements Entry<String, Object> {
+        private final String beanName;
+
+        private LazyEntry(String beanName) {
+            this.beanName = beanName;
+        }
+
+        @Override
+        public String getKey() {
+            return beanName;
+        }
+
+        @Override
+        public Object getValue() {
+            return get(beanName);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(beanName, value);
+        }
+    }
+}
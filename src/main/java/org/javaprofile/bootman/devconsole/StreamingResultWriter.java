@@ -0,0 +1,148 @@
+package org.javaprofile.bootman.devconsole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.BaseStream;
+
+/**
+ * Writes script results as newline delimited JSON (NDJSON), one element per line. Results which are an
+ * {@link Iterable}, an {@link Iterator}, a {@link java.util.stream.Stream} or an array are pulled one element at a time
+ * while the response is written, so a big collection is never serialized on the heap as a whole. As writes block once
+ * the client stops reading, a lazy Iterator or Stream is only advanced as fast as the client consumes the response.
+ * The last line is a summary telling the client whether there is more to fetch, and the offset to continue from.
+ * An element which would not fit into the byte budget even on its own is skipped and reported in the summary.
+ */
+@Component
+public class StreamingResultWriter {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingResultWriter.class);
+    private static final byte[] NEW_LINE = {'\n'};
+    private static final int MAX_REPORTED_OVERSIZED = 100;
+    private final ObjectMapper objectMapper;
+    private final long defaultMaxBytes;
+    private final int flushIntervalBytes;
+
+    public StreamingResultWriter(ObjectMapper objectMapper,
+                                 @Value("${bootman.devconsole.stream.max-bytes:10485760}") long defaultMaxBytes,
+                                 @Value("${bootman.devconsole.stream.flush-interval-bytes:65536}") int flushIntervalBytes) {
+        this.objectMapper = objectMapper;
+        this.defaultMaxBytes = defaultMaxBytes;
+        this.flushIntervalBytes = flushIntervalBytes;
+    }
+
+    /**
+     * Returns a body which streams the elements of the given page of the result. A limit of 0 or less streams
+     * everything from the start of the page until the byte budget is used up. A maxBytes of 0 or less applies the
+     * configured default budget. An offset of 0 or more starts at that element instead of at the start of the page,
+     * e.g. at the nextOffset of a page cut short by the byte budget.
+     */
+    public StreamingResponseBody stream(Object result, long page, long offset, int limit, long maxBytes) {
+        long byteBudget = maxBytes > 0 ? maxBytes : defaultMaxBytes;
+        long start = offset >= 0 ? offset : limit > 0 ? page * limit : 0;
+        return outputStream -> {
+            Iterator<?> iterator = toIterator(result);
+            try {
+                writePage(iterator, page, start, limit, byteBudget, outputStream);
+            } finally {
+                close(result);
+            }
+        };
+    }
+
+    private void writePage(Iterator<?> iterator, long page, long start, int limit, long byteBudget, OutputStream outputStream) throws IOException {
+        long position = 0;
+        for (; position < start && iterator.hasNext(); position++) {
+            iterator.next();
+        }
+        long count = 0;
+        long bytesWritten = 0;
+        long unflushedBytes = 0;
+        boolean budgetExhausted = false;
+        long oversizedCount = 0;
+        List<Map<String, Long>> oversized = new ArrayList<>();
+        while (iterator.hasNext() && (limit <= 0 || position - start < limit)) {
+            byte[] line = objectMapper.writeValueAsBytes(iterator.next());
+            if (line.length + 1 > byteBudget) {
+                // would never fit, not even as the only element of a page. Skip it rather than get stuck on it.
+                if (oversizedCount++ < MAX_REPORTED_OVERSIZED) {
+                    oversized.add(ImmutableMap.of("index", position, "bytes", (long) line.length + 1));
+                }
+                position++;
+                continue;
+            }
+            if (bytesWritten + line.length + 1 > byteBudget) {
+                // the element was read but not written. nextOffset points at it.
+                budgetExhausted = true;
+                break;
+            }
+            outputStream.write(line);
+            outputStream.write(NEW_LINE);
+            count++;
+            position++;
+            bytesWritten += line.length + 1;
+            unflushedBytes += line.length + 1;
+            if (unflushedBytes >= flushIntervalBytes) {
+                outputStream.flush();
+                unflushedBytes = 0;
+            }
+        }
+        boolean hasMore = budgetExhausted || iterator.hasNext();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("page", page);
+        summary.put("limit", limit);
+        summary.put("offset", start);
+        summary.put("count", count);
+        summary.put("bytes", bytesWritten);
+        summary.put("hasMore", hasMore);
+        summary.put("nextOffset", hasMore ? position : null);
+        summary.put("truncatedByByteBudget", budgetExhausted);
+        summary.put("oversizedCount", oversizedCount);
+        summary.put("oversized", oversized);
+        outputStream.write(objectMapper.writeValueAsBytes(ImmutableMap.of("summary", summary)));
+        outputStream.write(NEW_LINE);
+        outputStream.flush();
+        logger.info("streamed {} elements ({} bytes) from offset {}, skipped {} elements over the byte budget. more elements available: {}",
+                count, bytesWritten, start, oversizedCount, hasMore);
+    }
+
+    private Iterator<?> toIterator(Object result) {
+        if (result instanceof Iterator) {
+            return (Iterator<?>) result;
+        }
+        if (result instanceof Iterable) {
+            return ((Iterable<?>) result).iterator();
+        }
+        if (result instanceof BaseStream) {
+            return ((BaseStream<?, ?>) result).iterator();
+        }
+        if (result instanceof Object[]) {
+            return Arrays.asList((Object[]) result).iterator();
+        }
+        // anything else is a single element
+        return Collections.singletonList(result).iterator();
+    }
+
+    private void close(Object result) {
+        if (result instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) result).close();
+            } catch (Exception ex) {
+                logger.warn("Ignoring exception while closing the streamed script result", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package org.javaprofile.bootman.fleet;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.javaprofile.bootman.byteman.RuleScripts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Sends the same bootman request to a list of peers concurrently and collects the outcome per node. Every node gets
+ * the same deadline: connect and read timeouts bound each call, and nodes which have not answered once the deadline
+ * has passed are reported as TIMED_OUT, so one hanging node never holds up the result of the others.
+ * <p>
+ * Before rules are added with rollback, the installed version of every submitted rule is recorded on each node. As
+ * soon as a single node fails, every node that may have installed the rules gets its recorded versions back and loses
+ * the rules it did not have before, so that the fleet does not end up half instrumented.
+ */
+@Component
+public class FleetCoordinator {
+    private static final Logger logger = LoggerFactory.getLogger(FleetCoordinator.class);
+    private static final Pattern PEER = Pattern.compile("https?://[^/?#\\s]+(/[^?#\\s]*)?");
+    private final List<String> defaultPeers;
+    private final int maxPeers;
+    private final int connectTimeoutMillis;
+    private final long defaultTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final int maxResponseBytes;
+    private final ThreadPoolExecutor executor;
+
+    public FleetCoordinator(@Value("${bootman.fleet.peers:}") String defaultPeers,
+                            @Value("${bootman.fleet.max-peers:100}") int maxPeers,
+                            @Value("${bootman.fleet.max-parallelism:16}") int maxParallelism,
+                            @Value("${bootman.fleet.connect-timeout-millis:2000}") int connectTimeoutMillis,
+                            @Value("${bootman.fleet.default-timeout-millis:10000}") long defaultTimeoutMillis,
+                            @Value("${bootman.fleet.max-timeout-millis:120000}") long maxTimeoutMillis,
+                            @Value("${bootman.fleet.max-response-kb:256}") int maxResponseKb) {
+        this.defaultPeers = parsePeers(defaultPeers);
+        this.maxPeers = maxPeers;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+        this.maxResponseBytes = maxResponseKb * 1024;
+        AtomicLong counter = new AtomicLong();
+        // a fan-out needs one call per peer, anything beyond the queue is rejected
+        this.executor = new ThreadPoolExecutor(maxParallelism, maxParallelism, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(maxPeers, 1) * 2), runnable -> {
+            Thread thread = new Thread(runnable, "bootman-fleet-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sends the operation to all peers, or to the configured peers if none are given. The parameters are passed on
+     * as query parameters. A timeoutMillis of 0 or less applies the default timeout. Rollback is only supported for
+     * addRules. It lists the rules of every node first, with a timeout of its own, and sends nothing if that fails on
+     * any node.
+     */
+    public FleetResult fanOut(FleetOperation operation, String pathSuffix, String peers, String body,
+                              Map<String, String> parameters, long timeoutMillis, boolean rollback) {
+        if (rollback && operation != FleetOperation.addRules) {
+            throw new IllegalArgumentException("rollback is only supported for addRules");
+        }
+        List<String> nodes = peers == null || peers.trim().isEmpty() ? defaultPeers : parsePeers(peers);
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("no peers given and no bootman.fleet.peers configured");
+        }
+        if (nodes.size() > maxPeers) {
+            throw new IllegalArgumentException(String.format("%d peers given, at most %d are allowed", nodes.size(), maxPeers));
+        }
+        long timeout = timeoutMillis > 0 ? Math.min(timeoutMillis, maxTimeoutMillis) : defaultTimeoutMillis;
+        String path = operation.getPath() + (pathSuffix != null ? pathSuffix : "") + queryString(parameters);
+        long started = System.nanoTime();
+        List<Map<String, String>> previousRules = rollback ? previousRules(nodes, RuleScripts.split(body).keySet(), timeout) : null;
+        logger.info("sending {} to {} peers with a timeout of {} ms", operation, nodes.size(), timeout);
+        List<NodeResult> results = call(nodes, operation, path, body, timeout);
+        boolean failed = results.stream().anyMatch(result -> result.getStatus() != NodeStatus.SUCCEEDED);
+        boolean rolledBack = false;
+        if (failed && rollback) {
+            rollBack(results, body, previousRules, timeout);
+            rolledBack = true;
+        }
+        FleetResult fleetResult = new FleetResult(operation, results, rolledBack, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        logger.info("{} succeeded on {} of {} peers{}", operation, fleetResult.getSucceeded(), nodes.size(), rolledBack ? " and was rolled back" : "");
+        return fleetResult;
+    }
+
+    /**
+     * Returns the installed text of the given rules for every node, leaving out the rules a node does not have.
+     */
+    private List<Map<String, String>> previousRules(List<String> nodes, Set<String> ruleNames, long timeout) {
+        List<NodeResult> listings = call(nodes, FleetOperation.listAllRules, FleetOperation.listAllRules.getPath(), null, timeout);
+        List<Map<String, String>> previousRules = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        for (NodeResult listing : listings) {
+            try {
+                if (listing.getStatus() != NodeStatus.SUCCEEDED) {
+                    throw new IllegalStateException(listing.getStatus() + ": " + listing.getError());
+                }
+                Map<String, String> installed = RuleScripts.split(listing.getResponse());
+                installed.keySet().retainAll(ruleNames);
+                previousRules.add(installed);
+            } catch (RuntimeException ex) {
+                failures.add(listing.getNode() + " " + ex.getMessage());
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("cannot record the installed rules to roll back to, so addRules was not sent to any peer: "
+                    + String.join(", ", failures));
+        }
+        return previousRules;
+    }
+
+    private void rollBack(List<NodeResult> results, String rules, List<Map<String, String>> previousRules, long timeout) {
+        Map<String, String> submitted = RuleScripts.split(rules);
+        // a node which timed out or failed after receiving the rules may have installed some of them
+        List<NodeResult> reached = new ArrayList<>();
+        List<NodeCall> restores = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            NodeResult result = results.get(i);
+            if (result.getStatus() == NodeStatus.UNREACHABLE) {
+                continue;
+            }
+            Map<String, String> previous = previousRules.get(i);
+            String added = submitted.entrySet().stream()
+                    .filter(rule -> !previous.containsKey(rule.getKey()))
+                    .map(Map.Entry::getValue)
+                    .collect(Collectors.joining("\n"));
+            String replaced = String.join("\n", previous.values());
+            reached.add(result);
+            restores.add(deadline -> restore(result.getNode(), added, replaced, deadline));
+        }
+        logger.warn("rolling back addRules on {} peers", reached.size());
+        List<NodeResult> rollbacks = call(reached.stream().map(NodeResult::getNode).collect(Collectors.toList()), restores, timeout);
+        for (int i = 0; i < reached.size(); i++) {
+            reached.get(i).rollback = rollbacks.get(i);
+        }
+    }
+
+    /**
+     * Deletes the rules the node did not have before and re-adds the versions the call replaced. The recorded versions
+     * carry the rewriting bootman did when they were added, so addRules installs them as they are.
+     */
+    private NodeResult restore(String node, String added, String replaced, long deadline) {
+        NodeResult result = null;
+        if (!added.isEmpty()) {
+            //deleteRules picks the names out of the full rule text as well
+            result = call(node, FleetOperation.deleteRules, FleetOperation.deleteRules.getPath(), added, deadline);
+            if (result.getStatus() != NodeStatus.SUCCEEDED) {
+                return result;
+            }
+        }
+        if (!replaced.isEmpty()) {
+            result = call(node, FleetOperation.addRules, FleetOperation.addRules.getPath(), replaced, deadline);
+        }
+        return result != null ? result : new NodeResult(node, NodeStatus.SUCCEEDED, 0, null, null, 0);
+    }
+
+    private List<NodeResult> call(List<String> nodes, FleetOperation operation, String path, String body, long timeout) {
+        List<NodeCall> calls = nodes.stream()
+                .map(node -> (NodeCall) deadline -> call(node, operation, path, body, deadline))
+                .collect(Collectors.toList());
+        return call(nodes, calls, timeout);
+    }
+
+    private List<NodeResult> call(List<String> nodes, List<NodeCall> calls, long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        List<Future<NodeResult>> futures = new ArrayList<>();
+        try {
+            for (NodeCall call : calls) {
+                futures.add(executor.submit(() -> call.call(deadline)));
+            }
+        } catch (RejectedExecutionException ex) {
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException(String.format("fleet executor is busy. %d calls are running and %d are waiting",
+                    executor.getActiveCount(), executor.getQueue().size()), ex);
+        }
+        List<NodeResult> results = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            Future<NodeResult> future = futures.get(i);
+            try {
+                results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException ex) {
+                future.cancel(true);
+                results.add(new NodeResult(nodes.get(i), NodeStatus.TIMED_OUT, 0, null, "no response within " + timeout + " ms", timeout));
+            } catch (ExecutionException ex) {
+                results.add(new NodeResult(nodes.get(i), NodeStatus.FAILED, 0, null, String.valueOf(ex.getCause()), 0));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                futures.forEach(pending -> pending.cancel(true));
+                throw new IllegalStateException("interrupted while waiting for the peers", ex);
+            }
+        }
+        return results;
+    }
+
+    private NodeResult call(String node, FleetOperation operation, String path, String body, long deadline) {
+        long started = System.nanoTime();
+        int remainingMillis = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - started));
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(node + path).openConnection();
+            connection.setRequestMethod(operation.getMethod());
+            connection.setConnectTimeout(Math.min(connectTimeoutMillis, remainingMillis));
+            connection.setReadTimeout(remainingMillis);
+            connection.setInstanceFollowRedirects(false);
+            if (body != null && "POST".equals(operation.getMethod())) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+                try (OutputStream outputStream = connection.getOutputStream()) {
+                    outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int httpStatus = connection.getResponseCode();
+            String response = read(httpStatus < 400 ? connection.getInputStream() : connection.getErrorStream());
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            if (httpStatus >= 300) {
+                return new NodeResult(node, NodeStatus.FAILED, httpStatus, response, "HTTP " + httpStatus, elapsed);
+            }
+            String failure = operation.failureIn(response);
+            return new NodeResult(node, failure == null ? NodeStatus.SUCCEEDED : NodeStatus.FAILED, httpStatus, response, failure, elapsed);
+        } catch (ConnectException ex) {
+            return new NodeResult(node, NodeStatus.UNREACHABLE, 0, null, String.valueOf(ex), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (SocketTimeoutException ex) {
+            return new NodeResult(node, NodeStatus.TIMED_OUT, 0, null, String.valueOf(ex), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (IOException ex) {
+            return new NodeResult(node, NodeStatus.FAILED, 0, null, String.valueOf(ex), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private String read(InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            return null;
+        }
+        try (InputStream limited = ByteStreams.limit(inputStream, maxResponseBytes + 1L)) {
+            byte[] bytes = ByteStreams.toByteArray(limited);
+            if (bytes.length > maxResponseBytes) {
+                return new String(bytes, 0, maxResponseBytes, StandardCharsets.UTF_8) + "\n... response truncated at " + maxResponseBytes + " bytes";
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String queryString(Map<String, String> parameters) {
+        if (parameters == null || parameters.isEmpty()) {
+            return "";
+        }
+        StringBuilder query = new StringBuilder();
+        try {
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                query.append(query.length() == 0 ? '?' : '&')
+                        .append(URLEncoder.encode(parameter.getKey(), "UTF-8")).append('=')
+                        .append(URLEncoder.encode(parameter.getValue(), "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+        return query.toString();
+    }
+
+    private static List<String> parsePeers(String peers) {
+        Set<String> nodes = new LinkedHashSet<>();
+        for (String peer : Splitter.on(',').trimResults().omitEmptyStrings().split(peers)) {
+            if (!PEER.matcher(peer).matches()) {
+                throw new IllegalArgumentException("peer " + peer + " is not an http(s) base URL like http://host:8080");
+            }
+            nodes.add(peer.endsWith("/") ? peer.substring(0, peer.length() - 1) : peer);
+        }
+        return new ArrayList<>(nodes);
+    }
+
+    public List<String> getDefaultPeers() {
+        return defaultPeers;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private interface NodeCall {
+        NodeResult call(long deadline);
+    }
+
+    public enum NodeStatus {
+        SUCCEEDED, FAILED, TIMED_OUT, UNREACHABLE
+    }
+
+    public static class NodeResult {
+        private final String node;
+        private final NodeStatus status;
+        private final int httpStatus;
+        private final String response;
+        private final String error;
+        private final long elapsedMillis;
+        private NodeResult rollback;
+
+        private NodeResult(String node, NodeStatus status, int httpStatus, String response, String error, long elapsedMillis) {
+            this.node = node;
+            this.status = status;
+            this.httpStatus = httpStatus;
+            this.response = response;
+            this.error = error;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public NodeStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * 0 if there was no response.
+         */
+        public int getHttpStatus() {
+            return httpStatus;
+        }
+
+        public String getResponse() {
+            return response;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Outcome of restoring the rules the node had before, if the fan-out was rolled back. The last request sent
+         * for it, or the first one that failed.
+         */
+        public NodeResult getRollback() {
+            return rollback;
+        }
+    }
+
+    public static class FleetResult {
+        private final FleetOperation operation;
+        private final List<NodeResult> nodes;
+        private final boolean rolledBack;
+        private final long elapsedMillis;
+
+        private FleetResult(FleetOperation operation, List<NodeResult> nodes, boolean rolledBack, long elapsedMillis) {
+            this.operation = operation;
+            this.nodes = nodes;
+            this.rolledBack = rolledBack;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public FleetOperation getOperation() {
+            return operation;
+        }
+
+        public List<NodeResult> getNodes() {
+            return nodes;
+        }
+
+        public long getSucceeded() {
+            return nodes.stream().filter(node -> node.getStatus() == NodeStatus.SUCCEEDED).count();
+        }
+
+        public long getFailed() {
+            return nodes.size() - getSucceeded();
+        }
+
+        /**
+         * Whether the operation succeeded on some nodes but not on all of them.
+         */
+        public boolean isPartialFailure() {
+            long succeeded = getSucceeded();
+            return succeeded > 0 && succeeded < nodes.size();
+        }
+
+        public boolean isRolledBack() {
+            return rolledBack;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Number of nodes by status.
+         */
+        public Map<NodeStatus, Long> getSummary() {
+            Map<NodeStatus, Long> summary = new LinkedHashMap<>();
+            for (NodeStatus status : NodeStatus.values()) {
+                summary.put(status, nodes.stream().filter(node -> node.getStatus() == status).count());
+            }
+            return ImmutableMap.copyOf(summary);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.javaprofile.bootman.fleet;
+
+import org.javaprofile.bootman.controller.BytemanController;
+
+/**
+ * The bootman requests which can be fanned out to a fleet, with the path and method they are sent to on every node.
+ */
+public enum FleetOperation {
+    addRules("POST", "/addRules", true),
+    deleteRules("POST", "/deleteRules", true),
+    listAllRules("GET", "/listAllRules", true),
+    execute("POST", "/devConsole/execute/", false);
+
+    private final String method;
+    private final String path;
+    private final boolean byteman;
+
+    FleetOperation(String method, String path, boolean byteman) {
+        this.method = method;
+        this.path = path;
+        this.byteman = byteman;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns why a successful HTTP response still means the operation failed on the node, or null.
+     */
+    String failureIn(String body) {
+        // the Byteman endpoints answer 200 with a message if the agent is not active or a rule did not compile
+        if (!byteman || body == null) {
+            return null;
+        }
+        if (body.startsWith("Please run activateAgent API first") || body.startsWith("byteman agent is ")) {
+            return body;
+        }
+        // only the rules submitted by this request count. A rule broken before on the node must not fail, and with
+        // rollback undo, a fleet wide change.
+        return this == addRules && body.startsWith(BytemanController.RULE_ERRORS_MESSAGE) ? "rules failed to inject, see the response" : null;
+    }
+}
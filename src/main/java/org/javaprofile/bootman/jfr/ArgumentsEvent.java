@@ -0,0 +1,22 @@
+package org.javaprofile.bootman.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Summary of the arguments a rule captured, e.g. through BootmanHelper.jfrArguments($*).
+ */
+@Name("bootman.Arguments")
+@Label("Captured Arguments")
+@Category("bootman")
+@StackTrace(false)
+class ArgumentsEvent extends Event {
+    @Label("Rule")
+    String ruleName;
+
+    @Label("Arguments")
+    String arguments;
+}
@@ -0,0 +1,118 @@
+package org.javaprofile.bootman.jfr;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Commits the bootman JFR events on behalf of the rule helpers. Events are only built when a recording wants them,
+ * so rules using these methods cost next to nothing while no recording is running. On a JVM without JFR every method
+ * is a no-op.
+ */
+public final class JfrEvents {
+    private static final int MAX_ARGUMENT_LENGTH = 100;
+    private static final int MAX_ARGUMENTS_LENGTH = 1000;
+    private static final boolean SUPPORTED = isSupported();
+    private static final ThreadLocal<ArrayDeque<MethodTimingEvent>> TIMINGS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private JfrEvents() {
+    }
+
+    /**
+     * Whether this JVM comes with JFR, i.e. Java 11+ or a Java 8 update with the JFR backport.
+     */
+    public static boolean isSupported() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+        return jdk.jfr.FlightRecorder.isAvailable();
+    }
+
+    public static void ruleEvent(String ruleName, Object message) {
+        if (!SUPPORTED) {
+            return;
+        }
+        RuleEvent event = new RuleEvent();
+        if (event.shouldCommit()) {
+            event.ruleName = ruleName;
+            event.message = String.valueOf(message);
+            event.commit();
+        }
+    }
+
+    /**
+     * Begins a timing event for the method. The exit rule has to call {@link #methodExit(String, boolean)} with the
+     * same method.
+     */
+    public static void methodEnter(String ruleName, String method) {
+        if (!SUPPORTED) {
+            return;
+        }
+        MethodTimingEvent event = new MethodTimingEvent();
+        if (!event.isEnabled()) {
+            // no recording wants the event. The exit rule will not find it and do nothing either.
+            return;
+        }
+        event.ruleName = ruleName;
+        event.method = method;
+        event.begin();
+        TIMINGS.get().push(event);
+    }
+
+    public static void methodExit(String method, boolean exceptional) {
+        if (!SUPPORTED) {
+            return;
+        }
+        ArrayDeque<MethodTimingEvent> timings = TIMINGS.get();
+        // events above the method were begun by calls whose exit rule was deleted while they were running
+        for (Iterator<MethodTimingEvent> iterator = timings.iterator(); iterator.hasNext(); ) {
+            MethodTimingEvent event = iterator.next();
+            if (event.method.equals(method)) {
+                while (timings.pop() != event) {
+                    // drop the stale events
+                }
+                event.end();
+                if (event.shouldCommit()) {
+                    event.exceptional = exceptional;
+                    event.commit();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Commits the runtime types and the beginning of the string form of the arguments, e.g. of $* which holds the
+     * target instance followed by the method parameters.
+     */
+    public static void arguments(String ruleName, Object[] arguments) {
+        if (!SUPPORTED) {
+            return;
+        }
+        ArgumentsEvent event = new ArgumentsEvent();
+        if (event.shouldCommit()) {
+            event.ruleName = ruleName;
+            event.arguments = summarize(arguments);
+            event.commit();
+        }
+    }
+
+    private static String summarize(Object[] arguments) {
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; arguments != null && i < arguments.length && summary.length() < MAX_ARGUMENTS_LENGTH; i++) {
+            Object argument = arguments[i];
+            if (i > 0) {
+                summary.append(", ");
+            }
+            if (argument == null) {
+                summary.append("null");
+                continue;
+            }
+            String value = String.valueOf(argument);
+            summary.append(argument.getClass().getSimpleName()).append('=')
+                    .append(value.length() > MAX_ARGUMENT_LENGTH ? value.substring(0, MAX_ARGUMENT_LENGTH) + "..." : value);
+        }
+        return summary.length() > MAX_ARGUMENTS_LENGTH ? summary.substring(0, MAX_ARGUMENTS_LENGTH) + "..." : summary.toString();
+    }
+}
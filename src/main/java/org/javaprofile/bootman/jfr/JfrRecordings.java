@@ -0,0 +1,273 @@
+package org.javaprofile.bootman.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts, stops and dumps JFR recordings. Every recording is bounded in age and size, and only a few are kept at a
+ * time: starting one more closes the oldest stopped recording, and fails if they are all still running.
+ * <p>
+ * The jdk.jfr types are kept out of the method signatures of this bean, so that the application still starts on a
+ * Java 8 runtime without JFR. All methods fail with an IllegalStateException there.
+ */
+@Component
+public class JfrRecordings {
+    private static final Logger logger = LoggerFactory.getLogger(JfrRecordings.class);
+    private final boolean supported = JfrEvents.isSupported();
+    private final int maxRecordings;
+    private final long defaultMaxAgeSeconds;
+    private final long defaultMaxSizeMb;
+    private final int chunkSize;
+    private final Map<Long, RecordingHandle> recordings = new LinkedHashMap<>();
+
+    public JfrRecordings(@Value("${bootman.jfr.max-recordings:2}") int maxRecordings,
+                         @Value("${bootman.jfr.default-max-age-seconds:900}") long defaultMaxAgeSeconds,
+                         @Value("${bootman.jfr.default-max-size-mb:256}") long defaultMaxSizeMb,
+                         @Value("${bootman.jfr.chunk-size-kb:64}") int chunkSizeKb) {
+        this.maxRecordings = maxRecordings;
+        this.defaultMaxAgeSeconds = defaultMaxAgeSeconds;
+        this.defaultMaxSizeMb = defaultMaxSizeMb;
+        this.chunkSize = chunkSizeKb * 1024;
+    }
+
+    /**
+     * Starts a recording with the given JFR settings, "default" or "profile". A duration of 0 records until stopped,
+     * a maxAgeSeconds or maxSizeMb of 0 applies the configured default.
+     */
+    public synchronized RecordingInfo start(String name, String settings, long durationSeconds, long maxAgeSeconds, long maxSizeMb) {
+        checkSupported();
+        makeRoom();
+        try {
+            Recording recording = new Recording(Configuration.getConfiguration(settings));
+            recording.setName(name);
+            recording.setToDisk(true);
+            recording.setMaxAge(Duration.ofSeconds(maxAgeSeconds > 0 ? maxAgeSeconds : defaultMaxAgeSeconds));
+            recording.setMaxSize((maxSizeMb > 0 ? maxSizeMb : defaultMaxSizeMb) * 1024 * 1024);
+            if (durationSeconds > 0) {
+                recording.setDuration(Duration.ofSeconds(durationSeconds));
+            }
+            recording.start();
+            RecordingHandle handle = new RecordingHandle(recording, settings);
+            recordings.put(recording.getId(), handle);
+            logger.info("started JFR recording {} ({}) with {} settings", recording.getId(), name, settings);
+            return handle.info();
+        } catch (IOException | java.text.ParseException ex) {
+            throw new IllegalArgumentException("cannot read JFR settings " + settings, ex);
+        }
+    }
+
+    private void makeRoom() {
+        if (recordings.size() < maxRecordings) {
+            return;
+        }
+        for (Map.Entry<Long, RecordingHandle> entry : recordings.entrySet()) {
+            if (!entry.getValue().isRunning()) {
+                logger.info("closing JFR recording {} to make room for a new one", entry.getKey());
+                close(entry.getKey());
+                return;
+            }
+        }
+        throw new IllegalStateException(maxRecordings + " JFR recordings are running already. Stop one of them first.");
+    }
+
+    public synchronized RecordingInfo stop(long id) {
+        RecordingHandle handle = get(id);
+        if (handle.isRunning()) {
+            handle.recording.stop();
+            logger.info("stopped JFR recording {}", id);
+        }
+        return handle.info();
+    }
+
+    /**
+     * Closes the recording and deletes its data.
+     */
+    public synchronized RecordingInfo close(long id) {
+        RecordingHandle handle = get(id);
+        RecordingInfo info = handle.info();
+        handle.recording.close();
+        recordings.remove(id);
+        return info;
+    }
+
+    public synchronized List<RecordingInfo> list() {
+        checkSupported();
+        List<RecordingInfo> infos = new ArrayList<>();
+        recordings.values().forEach(handle -> infos.add(handle.info()));
+        return infos;
+    }
+
+    public synchronized RecordingInfo info(long id) {
+        return get(id).info();
+    }
+
+    /**
+     * Writes what the recording holds so far to a temp file, which the caller has to delete. Works for running
+     * recordings as well.
+     */
+    public Path dump(long id) throws IOException {
+        Recording recording;
+        synchronized (this) {
+            recording = get(id).recording;
+        }
+        Path file = Files.createTempFile("bootman-" + id + "-", ".jfr");
+        try {
+            recording.dump(file);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(file);
+            throw ex;
+        }
+        return file;
+    }
+
+    /**
+     * Copies the dump to the output stream chunk by chunk, flushing every chunk, and deletes it afterwards.
+     */
+    public void stream(Path dump, OutputStream outputStream) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(dump)) {
+            byte[] chunk = new byte[chunkSize];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                outputStream.write(chunk, 0, read);
+                outputStream.flush();
+            }
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void closeAll() {
+        recordings.values().forEach(handle -> handle.recording.close());
+        recordings.clear();
+    }
+
+    private RecordingHandle get(long id) {
+        checkSupported();
+        RecordingHandle handle = recordings.get(id);
+        if (handle == null) {
+            throw new IllegalArgumentException("no JFR recording with id " + id);
+        }
+        return handle;
+    }
+
+    private void checkSupported() {
+        if (!supported) {
+            throw new IllegalStateException("JFR is not available in this JVM");
+        }
+    }
+
+    private static class RecordingHandle {
+        private final Recording recording;
+        private final String settings;
+
+        private RecordingHandle(Recording recording, String settings) {
+            this.recording = recording;
+            this.settings = settings;
+        }
+
+        private boolean isRunning() {
+            RecordingState state = recording.getState();
+            return state == RecordingState.NEW || state == RecordingState.DELAYED || state == RecordingState.RUNNING;
+        }
+
+        private RecordingInfo info() {
+            Duration duration = recording.getDuration();
+            Duration maxAge = recording.getMaxAge();
+            return new RecordingInfo(recording.getId(), recording.getName(), recording.getState().name(), settings,
+                    recording.getStartTime(), recording.getStopTime(), duration != null ? duration.getSeconds() : 0,
+                    maxAge != null ? maxAge.getSeconds() : 0, recording.getMaxSize(), recording.getSize());
+        }
+    }
+
+    public static class RecordingInfo {
+        private final long id;
+        private final String name;
+        private final String state;
+        private final String settings;
+        private final Instant startTime;
+        private final Instant stopTime;
+        private final long durationSeconds;
+        private final long maxAgeSeconds;
+        private final long maxSizeBytes;
+        private final long sizeBytes;
+
+        private RecordingInfo(long id, String name, String state, String settings, Instant startTime, Instant stopTime,
+                              long durationSeconds, long maxAgeSeconds, long maxSizeBytes, long sizeBytes) {
+            this.id = id;
+            this.name = name;
+            this.state = state;
+            this.settings = settings;
+            this.startTime = startTime;
+            this.stopTime = stopTime;
+            this.durationSeconds = durationSeconds;
+            this.maxAgeSeconds = maxAgeSeconds;
+            this.maxSizeBytes = maxSizeBytes;
+            this.sizeBytes = sizeBytes;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public String getSettings() {
+            return settings;
+        }
+
+        public Instant getStartTime() {
+            return startTime;
+        }
+
+        public Instant getStopTime() {
+            return stopTime;
+        }
+
+        /**
+         * 0 if the recording runs until stopped.
+         */
+        public long getDurationSeconds() {
+            return durationSeconds;
+        }
+
+        public long getMaxAgeSeconds() {
+            return maxAgeSeconds;
+        }
+
+        public long getMaxSizeBytes() {
+            return maxSizeBytes;
+        }
+
+        /**
+         * Size of the data recorded so far, as far as JFR has written it to disk.
+         */
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.javaprofile.bootman.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Duration of a method call, begun by an entry rule and committed by an exit rule.
+ */
+@Name("bootman.MethodTiming")
+@Label("Method Timing")
+@Category("bootman")
+@StackTrace(false)
+class MethodTimingEvent extends Event {
+    @Label("Method")
+    String method;
+
+    @Label("Rule")
+    String ruleName;
+
+    @Label("Exceptional Exit")
+    boolean exceptional;
+}
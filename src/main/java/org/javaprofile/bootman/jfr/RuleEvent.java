@@ -0,0 +1,22 @@
+package org.javaprofile.bootman.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Free form event committed by a rule through BootmanHelper.jfrEvent(...).
+ */
+@Name("bootman.RuleEvent")
+@Label("Rule Event")
+@Category("bootman")
+@StackTrace(false)
+class RuleEvent extends Event {
+    @Label("Rule")
+    String ruleName;
+
+    @Label("Message")
+    String message;
+}
@@ -0,0 +1,89 @@
+package org.javaprofile.bootman.management;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * With bootman.management.port set, the bootman endpoints get a Tomcat connector of their own. It has its own small
+ * worker pool, connection limit and timeouts, so bootman stays reachable when the application's connector is
+ * saturated, and slow bootman requests like rule retransformations never hold application threads.
+ */
+@Configuration
+public class ManagementConnectorConfiguration implements WebMvcConfigurer {
+    private static final Logger logger = LoggerFactory.getLogger(ManagementConnectorConfiguration.class);
+    private final int port;
+    private final String address;
+    private final int maxThreads;
+    private final int maxConnections;
+    private final int acceptCount;
+    private final int connectionTimeoutMillis;
+    private final long asyncTimeoutMillis;
+
+    public ManagementConnectorConfiguration(@Value("${bootman.management.port:0}") int port,
+                                            @Value("${bootman.management.address:}") String address,
+                                            @Value("${bootman.management.max-threads:4}") int maxThreads,
+                                            @Value("${bootman.management.max-connections:16}") int maxConnections,
+                                            @Value("${bootman.management.accept-count:8}") int acceptCount,
+                                            @Value("${bootman.management.connection-timeout-millis:5000}") int connectionTimeoutMillis,
+                                            @Value("${bootman.management.async-timeout-millis:60000}") long asyncTimeoutMillis) {
+        this.port = port;
+        this.address = address;
+        this.maxThreads = maxThreads;
+        this.maxConnections = maxConnections;
+        this.acceptCount = acceptCount;
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+    }
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> managementConnectorCustomizer() {
+        return factory -> {
+            if (port > 0) {
+                factory.addAdditionalTomcatConnectors(createConnector());
+            }
+        };
+    }
+
+    private Connector createConnector() {
+        Connector connector = new Connector(TomcatServletWebServerFactory.DEFAULT_PROTOCOL);
+        connector.setPort(port);
+        //applies to streamed responses and deferred results, e.g. JFR dumps and awaiting script jobs
+        connector.setAsyncTimeout(asyncTimeoutMillis);
+        //without an executor of its own, every connector creates a private worker pool sized by these settings
+        AbstractProtocol<?> protocol = (AbstractProtocol<?>) connector.getProtocolHandler();
+        protocol.setMaxThreads(maxThreads);
+        protocol.setMinSpareThreads(1);
+        protocol.setMaxConnections(maxConnections);
+        protocol.setAcceptCount(acceptCount);
+        protocol.setConnectionTimeout(connectionTimeoutMillis);
+        protocol.setKeepAliveTimeout(connectionTimeoutMillis);
+        if (!address.isEmpty()) {
+            try {
+                protocol.setAddress(InetAddress.getByName(address));
+            } catch (UnknownHostException ex) {
+                throw new IllegalArgumentException("invalid bootman.management.address " + address, ex);
+            }
+        }
+        logger.info("serving bootman endpoints on port {} with at most {} threads and {} connections", port, maxThreads, maxConnections);
+        return connector;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (port > 0) {
+            registry.addInterceptor(new ManagementPortInterceptor(port));
+        }
+    }
+}
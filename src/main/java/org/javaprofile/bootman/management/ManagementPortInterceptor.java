@@ -0,0 +1,31 @@
+package org.javaprofile.bootman.management;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Answers requests for {@link ManagementEndpoint}s which did not come in through the management port with a 404, so
+ * that they cannot take up the worker threads of the application.
+ */
+class ManagementPortInterceptor implements HandlerInterceptor {
+    private final int managementPort;
+
+    ManagementPortInterceptor(int managementPort) {
+        this.managementPort = managementPort;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (handler instanceof HandlerMethod
+                && ((HandlerMethod) handler).getBeanType().isAnnotationPresent(ManagementEndpoint.class)
+                && request.getLocalPort() != managementPort) {
+            response.sendError(HttpStatus.NOT_FOUND.value(), "bootman endpoints are served on port " + managementPort + " only");
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package org.javaprofile.bootman.profiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stack samples merged into a trie of frames, root first. Frames are interned as class.method ids and every distinct
+ * call path is stored once with its sample count, so memory grows with the number of distinct paths, not with the
+ * number of samples. Once maxNodes is reached, samples needing new nodes are counted at the deepest existing node and
+ * as truncated. Not thread safe.
+ */
+final class FrameTrie {
+    static final String DEEP_STACK_FRAME = "[deep stack]";
+    private static final int[] NO_FRAMES = new int[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final int maxNodes;
+    private final Map<String, Integer> frameIds = new HashMap<>();
+    private final List<String> frames = new ArrayList<>();
+    // shortcut from the stack trace element, which includes the line number, to the class.method frame id
+    private final Map<StackTraceElement, Integer> elementIds = new HashMap<>();
+    private final Node root = new Node(-1);
+    private int nodeCount = 1;
+    private long samples;
+    private long truncatedSamples;
+
+    FrameTrie(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Adds a stack as returned by the JVM, i.e. with the innermost frame first. A stack of maxDepth frames is taken to
+     * be cut off and hung below a synthetic root frame.
+     */
+    void add(StackTraceElement[] stack, int maxDepth) {
+        if (stack.length == 0) {
+            return;
+        }
+        samples++;
+        Node node = root;
+        if (stack.length >= maxDepth) {
+            node = child(root, frameId(DEEP_STACK_FRAME));
+            if (node == null) {
+                truncatedSamples++;
+                return;
+            }
+        }
+        for (int i = stack.length - 1; i >= 0; i--) {
+            Node next = child(node, frameId(stack[i]));
+            if (next == null) {
+                truncatedSamples++;
+                break;
+            }
+            node = next;
+        }
+        if (node != root) {
+            node.self++;
+        }
+    }
+
+    private Node child(Node parent, int frame) {
+        Node child = parent.find(frame);
+        if (child == null && frame >= 0 && nodeCount < maxNodes) {
+            child = parent.add(frame);
+            nodeCount++;
+        }
+        return child;
+    }
+
+    private int frameId(StackTraceElement element) {
+        Integer id = elementIds.get(element);
+        if (id == null) {
+            id = frameId(element.getClassName() + "." + element.getMethodName());
+            if (id >= 0 && elementIds.size() < maxNodes) {
+                elementIds.put(element, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the frame, or -1 if it is new and the trie is full, as there would be no node to put it in.
+     */
+    private int frameId(String frame) {
+        Integer id = frameIds.get(frame);
+        if (id == null) {
+            if (nodeCount >= maxNodes) {
+                return -1;
+            }
+            id = frames.size();
+            frames.add(frame);
+            frameIds.put(frame, id);
+        }
+        return id;
+    }
+
+    /**
+     * Writes one line per call path with samples of its own, frames separated by semicolons followed by the count,
+     * as expected by flamegraph.pl and most flame graph viewers.
+     */
+    void writeCollapsed(StringBuilder out, long minCount) {
+        String[] path = new String[16];
+        for (int i = 0; i < root.childCount; i++) {
+            write(root.children[i], path, 0, out, minCount);
+        }
+    }
+
+    private void write(Node node, String[] path, int depth, StringBuilder out, long minCount) {
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, depth * 2);
+        }
+        path[depth] = frames.get(node.frame);
+        if (node.self > 0 && node.self >= minCount) {
+            for (int i = 0; i <= depth; i++) {
+                if (i > 0) {
+                    out.append(';');
+                }
+                out.append(path[i]);
+            }
+            out.append(' ').append(node.self).append('\n');
+        }
+        for (int i = 0; i < node.childCount; i++) {
+            write(node.children[i], path, depth + 1, out, minCount);
+        }
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    int getFrameCount() {
+        return frames.size();
+    }
+
+    long getSamples() {
+        return samples;
+    }
+
+    long getTruncatedSamples() {
+        return truncatedSamples;
+    }
+
+    private static final class Node {
+        private final int frame;
+        private long self;
+        private int[] childFrames = NO_FRAMES;
+        private Node[] children = NO_NODES;
+        private int childCount;
+
+        private Node(int frame) {
+            this.frame = frame;
+        }
+
+        private Node find(int frame) {
+            // most frames have a handful of callees at most, a linear scan beats a hash map here
+            for (int i = 0; i < childCount; i++) {
+                if (childFrames[i] == frame) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node add(int frame) {
+            if (childCount == children.length) {
+                int capacity = Math.max(2, childCount * 2);
+                childFrames = Arrays.copyOf(childFrames, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            Node child = new Node(frame);
+            childFrames[childCount] = frame;
+            children[childCount++] = child;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package org.javaprofile.bootman.profiler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Samples the stacks of all threads at a fixed interval on a dedicated thread and merges them into a {@link FrameTrie}.
+ * Only one profile runs at a time. Every profile stops by itself after its duration, which is capped by
+ * max-duration-seconds, and the trie is capped at max-nodes, so a forgotten profile can neither run nor grow forever.
+ * The result of the last profile is kept until the next one starts.
+ */
+@Component
+public class SamplingProfiler {
+    private static final Logger logger = LoggerFactory.getLogger(SamplingProfiler.class);
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final long maxDurationSeconds;
+    private final long minIntervalMillis;
+    private final int maxStackDepth;
+    private final int maxNodes;
+    private final ScheduledExecutorService sampler;
+    private Profile profile;
+
+    public SamplingProfiler(@Value("${bootman.profiler.max-duration-seconds:300}") long maxDurationSeconds,
+                            @Value("${bootman.profiler.min-interval-millis:5}") long minIntervalMillis,
+                            @Value("${bootman.profiler.max-stack-depth:128}") int maxStackDepth,
+                            @Value("${bootman.profiler.max-nodes:200000}") int maxNodes) {
+        this.maxDurationSeconds = maxDurationSeconds;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxStackDepth = maxStackDepth;
+        this.maxNodes = maxNodes;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bootman-cpu-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts sampling. Only threads on CPU are sampled unless includeIdle is set. A threadNamePattern limits the
+     * sampled threads to those with a matching name.
+     */
+    public synchronized ProfileStatus start(long durationSeconds, long intervalMillis, boolean includeIdle, String threadNamePattern) {
+        if (profile != null && profile.isRunning()) {
+            throw new IllegalStateException("a CPU profile is running already. Stop it first.");
+        }
+        long duration = Math.min(durationSeconds > 0 ? durationSeconds : maxDurationSeconds, maxDurationSeconds);
+        long interval = Math.max(intervalMillis, minIntervalMillis);
+        Pattern threadNames = threadNamePattern == null || threadNamePattern.isEmpty() ? null : Pattern.compile(threadNamePattern);
+        Profile newProfile = new Profile(duration, interval, includeIdle, threadNames);
+        newProfile.sampling = sampler.scheduleAtFixedRate(() -> sample(newProfile), 0, interval, TimeUnit.MILLISECONDS);
+        sampler.schedule(() -> stop(newProfile), duration, TimeUnit.SECONDS);
+        profile = newProfile;
+        logger.info("started CPU profile for {} s, sampling every {} ms", duration, interval);
+        return profile.status();
+    }
+
+    public synchronized ProfileStatus stop() {
+        if (profile == null) {
+            throw new IllegalStateException("no CPU profile was started yet");
+        }
+        stop(profile);
+        return profile.status();
+    }
+
+    private void stop(Profile stopped) {
+        if (stopped.sampling.cancel(false)) {
+            synchronized (stopped.trie) {
+                stopped.stoppedAt = Instant.now();
+            }
+            logger.info("stopped CPU profile after {} samples", stopped.ticks);
+        }
+    }
+
+    public synchronized ProfileStatus status() {
+        return profile != null ? profile.status() : null;
+    }
+
+    /**
+     * Returns the stacks sampled so far in collapsed form, skipping call paths with less than minCount samples.
+     */
+    public String collapsedStacks(long minCount) {
+        Profile current;
+        synchronized (this) {
+            current = profile;
+        }
+        if (current == null) {
+            throw new IllegalStateException("no CPU profile was started yet");
+        }
+        StringBuilder out = new StringBuilder();
+        synchronized (current.trie) {
+            current.trie.writeCollapsed(out, minCount);
+        }
+        return out.toString();
+    }
+
+    private void sample(Profile sampled) {
+        try {
+            long started = System.nanoTime();
+            ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(selectThreads(sampled), maxStackDepth);
+            long self = Thread.currentThread().getId();
+            synchronized (sampled.trie) {
+                for (ThreadInfo threadInfo : threadInfos) {
+                    if (threadInfo == null || threadInfo.getThreadId() == self
+                            || !sampled.includeIdle && threadInfo.getThreadState() != Thread.State.RUNNABLE
+                            || sampled.threadNames != null && !sampled.threadNames.matcher(threadInfo.getThreadName()).matches()) {
+                        continue;
+                    }
+                    sampled.trie.add(threadInfo.getStackTrace(), maxStackDepth);
+                }
+                sampled.ticks++;
+                sampled.samplingNanos += System.nanoTime() - started;
+            }
+        } catch (Exception ex) {
+            logger.warn("Ignoring exception encountered while sampling thread stacks", ex);
+        }
+    }
+
+    /**
+     * Threads blocked in native code, e.g. waiting for a socket, are RUNNABLE as far as the JVM is concerned. Unless
+     * idle threads are wanted, only threads which used CPU since the last tick are sampled, which also saves walking
+     * the stacks of all the others.
+     */
+    private long[] selectThreads(Profile sampled) {
+        long[] threadIds = threadMXBean.getAllThreadIds();
+        if (sampled.includeIdle || !threadMXBean.isThreadCpuTimeSupported() || !threadMXBean.isThreadCpuTimeEnabled()) {
+            return threadIds;
+        }
+        Map<Long, Long> cpuTimes = new HashMap<>(threadIds.length * 2);
+        long[] selected = new long[threadIds.length];
+        int count = 0;
+        for (long threadId : threadIds) {
+            long cpuTime = threadMXBean.getThreadCpuTime(threadId);
+            Long previous = sampled.cpuTimes.get(threadId);
+            if (previous != null && cpuTime > previous) {
+                selected[count++] = threadId;
+            }
+            cpuTimes.put(threadId, cpuTime);
+        }
+        sampled.cpuTimes = cpuTimes;
+        return Arrays.copyOf(selected, count);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sampler.shutdownNow();
+    }
+
+    private class Profile {
+        private final Instant startedAt = Instant.now();
+        private final long durationSeconds;
+        private final long intervalMillis;
+        private final boolean includeIdle;
+        private final Pattern threadNames;
+        private final FrameTrie trie = new FrameTrie(maxNodes);
+        private volatile ScheduledFuture<?> sampling;
+        // CPU time by thread id as of the last tick. Only used by the sampler thread.
+        private Map<Long, Long> cpuTimes = new HashMap<>();
+        // guarded by trie
+        private Instant stoppedAt;
+        private long ticks;
+        private long samplingNanos;
+
+        private Profile(long durationSeconds, long intervalMillis, boolean includeIdle, Pattern threadNames) {
+            this.durationSeconds = durationSeconds;
+            this.intervalMillis = intervalMillis;
+            this.includeIdle = includeIdle;
+            this.threadNames = threadNames;
+        }
+
+        private boolean isRunning() {
+            return !sampling.isDone();
+        }
+
+        private ProfileStatus status() {
+            synchronized (trie) {
+                return new ProfileStatus(isRunning(), startedAt, stoppedAt, durationSeconds, intervalMillis, includeIdle,
+                        threadNames != null ? threadNames.pattern() : null, ticks, trie.getSamples(), trie.getTruncatedSamples(),
+                        trie.getNodeCount(), maxNodes, trie.getFrameCount(), ticks == 0 ? 0 : samplingNanos / 1000.0 / ticks);
+            }
+        }
+    }
+
+    public static class ProfileStatus {
+        private final boolean running;
+        private final Instant startedAt;
+        private final Instant stoppedAt;
+        private final long durationSeconds;
+        private final long intervalMillis;
+        private final boolean includeIdle;
+        private final String threadNamePattern;
+        private final long ticks;
+        private final long samples;
+        private final long truncatedSamples;
+        private final int nodes;
+        private final int maxNodes;
+        private final int frames;
+        private final double averageTickMicros;
+
+        private ProfileStatus(boolean running, Instant startedAt, Instant stoppedAt, long durationSeconds, long intervalMillis,
+                              boolean includeIdle, String threadNamePattern, long ticks, long samples, long truncatedSamples,
+                              int nodes, int maxNodes, int frames, double averageTickMicros) {
+            this.running = running;
+            this.startedAt = startedAt;
+            this.stoppedAt = stoppedAt;
+            this.durationSeconds = durationSeconds;
+            this.intervalMillis = intervalMillis;
+            this.includeIdle = includeIdle;
+            this.threadNamePattern = threadNamePattern;
+            this.ticks = ticks;
+            this.samples = samples;
+            this.truncatedSamples = truncatedSamples;
+            this.nodes = nodes;
+            this.maxNodes = maxNodes;
+            this.frames = frames;
+            this.averageTickMicros = averageTickMicros;
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        public Instant getStoppedAt() {
+            return stoppedAt;
+        }
+
+        public long getDurationSeconds() {
+            return durationSeconds;
+        }
+
+        public long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        public boolean isIncludeIdle() {
+            return includeIdle;
+        }
+
+        public String getThreadNamePattern() {
+            return threadNamePattern;
+        }
+
+        /**
+         * How often the threads were sampled.
+         */
+        public long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * How many thread stacks were added, summed over all ticks.
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * Samples cut short because the trie was full.
+         */
+        public long getTruncatedSamples() {
+            return truncatedSamples;
+        }
+
+        public int getNodes() {
+            return nodes;
+        }
+
+        public int getMaxNodes() {
+            return maxNodes;
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        /**
+         * Average time a tick took on the sampler thread, i.e. what the profile costs.
+         */
+        public double getAverageTickMicros() {
+            return averageTickMicros;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.javaprofile.bootman.benchmark;
+
+import org.javaprofile.bootman.byteman.AgentChannels;
+import org.javaprofile.bootman.byteman.AgentMode;
+import org.javaprofile.bootman.byteman.AgentStateHolder;
+import org.javaprofile.bootman.byteman.MethodProfiler;
+import org.javaprofile.bootman.byteman.RuleBudgetEnforcer;
+import org.javaprofile.bootman.byteman.RuleInstrumenter;
+import org.javaprofile.bootman.byteman.RuleSetDeployer;
+import org.javaprofile.bootman.byteman.RulesDirectoryWatcher;
+import org.javaprofile.bootman.byteman.TraceSink;
+import org.javaprofile.bootman.controller.BytemanController;
+import org.javaprofile.bootman.controller.HelloController;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the BytemanController endpoints with the agent driven in-process versus through its TCP listener, with
+ * and without the rewriting of submitted rules for rule metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.attach.allowAttachSelf=true")
+public class AgentChannelBenchmark {
+    private static final String INSTALLED_RULE = "RULE installed rule\n" +
+            "CLASS org.javaprofile.bootman.controller.HelloController\n" +
+            "METHOD sayHello\n" +
+            "AT EXIT\n" +
+            "IF false\n" +
+            "DO traceln(\"never fires\")\n" +
+            "ENDRULE\n";
+    private static final String ROUND_TRIP_RULE = INSTALLED_RULE.replace("installed rule", "round trip rule");
+
+    @Param({"IN_PROCESS", "LISTENER"})
+    public AgentMode agentMode;
+
+    @Param({"false", "true"})
+    public boolean ruleMetrics;
+
+    private BytemanController controller;
+
+    @Setup(Level.Trial)
+    public void activateAgent() {
+        new HelloController();
+        RuleInstrumenter ruleInstrumenter = new RuleInstrumenter(ruleMetrics);
+        AgentChannels agentChannels = new AgentChannels();
+        AgentStateHolder agentStateHolder = new AgentStateHolder(0);
+        RuleSetDeployer ruleSetDeployer = new RuleSetDeployer(ruleInstrumenter);
+        RuleBudgetEnforcer ruleBudgetEnforcer = new RuleBudgetEnforcer(agentChannels, 60, 3, 100);
+        controller = new BytemanController(agentMode, agentStateHolder, agentChannels, ruleSetDeployer, ruleInstrumenter, ruleBudgetEnforcer,
+                new TraceSink(1024, 100, 1000, false, 5), new MethodProfiler(),
+                new RulesDirectoryWatcher("", false, false, 500, agentStateHolder, agentChannels, ruleInstrumenter, ruleSetDeployer, ruleBudgetEnforcer));
+        controller.activateAgent(new String[0]);
+        controller.addRules(INSTALLED_RULE, 0, 0, 1, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void terminateAgent() {
+        controller.terminateAgent();
+    }
+
+    @Benchmark
+    public String listAllRules() {
+        return controller.listAllRules();
+    }
+
+    @Benchmark
+    public String addDeleteRoundTrip() {
+        controller.addRules(ROUND_TRIP_RULE, 0, 0, 1, false);
+        return controller.deleteRules(ROUND_TRIP_RULE);
+    }
+}
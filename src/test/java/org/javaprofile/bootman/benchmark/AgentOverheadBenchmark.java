@@ -0,0 +1,87 @@
+package org.javaprofile.bootman.benchmark;
+
+import com.google.common.io.Resources;
+import org.javaprofile.bootman.byteman.AgentChannels;
+import org.javaprofile.bootman.byteman.AgentMode;
+import org.javaprofile.bootman.byteman.AgentStateHolder;
+import org.javaprofile.bootman.byteman.MethodProfiler;
+import org.javaprofile.bootman.byteman.RuleBudgetEnforcer;
+import org.javaprofile.bootman.byteman.RuleInstrumenter;
+import org.javaprofile.bootman.byteman.RuleSetDeployer;
+import org.javaprofile.bootman.byteman.RulesDirectoryWatcher;
+import org.javaprofile.bootman.byteman.TraceSink;
+import org.javaprofile.bootman.controller.BytemanController;
+import org.javaprofile.bootman.controller.HelloController;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a HelloController.sayHello call without the agent, with the agent but no rules, with the sample rules of
+ * the README injected, and after the agent was terminated again, which should be back to the numbers without agent.
+ * README_RULES_DEBUG_ONLY injects the sample rules for debug requests only and calls sayHello without a debug tag,
+ * i.e. what everybody else pays while one request is being debugged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.attach.allowAttachSelf=true")
+public class AgentOverheadBenchmark {
+    public enum AgentState {
+        NO_AGENT,
+        AGENT_NO_RULES,
+        README_RULES,
+        README_RULES_DEBUG_ONLY,
+        AFTER_TERMINATE
+    }
+
+    @Param({"NO_AGENT", "AGENT_NO_RULES", "README_RULES", "README_RULES_DEBUG_ONLY", "AFTER_TERMINATE"})
+    public AgentState agentState;
+
+    private HelloController helloController;
+    private BytemanController controller;
+
+    @Setup(Level.Trial)
+    public void prepareAgent() throws Exception {
+        //sayHello and the sample rules log on every call. Console output would drown what the agent adds.
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(ch.qos.logback.classic.Level.WARN);
+        helloController = new HelloController();
+        //set up the way the application runs by default, i.e. in-process agent and rule metrics enabled
+        RuleInstrumenter ruleInstrumenter = new RuleInstrumenter(true);
+        AgentChannels agentChannels = new AgentChannels();
+        AgentStateHolder agentStateHolder = new AgentStateHolder(0);
+        RuleSetDeployer ruleSetDeployer = new RuleSetDeployer(ruleInstrumenter);
+        RuleBudgetEnforcer ruleBudgetEnforcer = new RuleBudgetEnforcer(agentChannels, 60, 3, 100);
+        controller = new BytemanController(AgentMode.IN_PROCESS, agentStateHolder, agentChannels, ruleSetDeployer, ruleInstrumenter, ruleBudgetEnforcer,
+                new TraceSink(1024, 100, 1000, false, 5), new MethodProfiler(),
+                new RulesDirectoryWatcher("", false, false, 500, agentStateHolder, agentChannels, ruleInstrumenter, ruleSetDeployer, ruleBudgetEnforcer));
+        if (agentState == AgentState.NO_AGENT) {
+            return;
+        }
+        controller.activateAgent(new String[0]);
+        if (agentState != AgentState.AGENT_NO_RULES) {
+            String rules = Resources.toString(Resources.getResource("sample/rules/webdemo.btm"), StandardCharsets.UTF_8);
+            controller.addRules(rules, 0, 0, 1, agentState == AgentState.README_RULES_DEBUG_ONLY);
+        }
+        if (agentState == AgentState.AFTER_TERMINATE) {
+            controller.terminateAgent();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void terminateAgent() {
+        if (agentState != AgentState.NO_AGENT && agentState != AgentState.AFTER_TERMINATE) {
+            controller.terminateAgent();
+        }
+    }
+
+    @Benchmark
+    public String sayHello() {
+        return helloController.sayHello("bootman");
+    }
+}
@@ -0,0 +1,72 @@
+package org.javaprofile.bootman.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.javaprofile.bootman.controller.DevConsoleController;
+import org.javaprofile.bootman.controller.HelloController;
+import org.javaprofile.bootman.devconsole.CompiledScriptCache;
+import org.javaprofile.bootman.devconsole.ScriptJobService;
+import org.javaprofile.bootman.devconsole.ScriptResourceMonitor;
+import org.javaprofile.bootman.devconsole.StreamingResultWriter;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.StaticApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JavaScript through DevConsoleController.executeCode on Nashorn versus GraalJS: a repeated snippet calling a bean,
+ * a different snippet every time and a snippet spending its time in a loop. Nashorn is only there up to JDK 14.
+ * GraalJS compiles hot code only on a JVM with the Graal compiler, e.g. GraalVM, and interprets it otherwise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JavaScriptBackendBenchmark {
+    private static final String HOT_LOOP = "var sum = 0; for (var i = 0; i < 10000; i++) { sum += i % 7; } sum";
+
+    @Param({"nashorn", "graaljs"})
+    public String backend;
+
+    private DevConsoleController controller;
+    private ScriptJobService scriptJobService;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void createController() {
+        //executeCode logs every snippet and result
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(ch.qos.logback.classic.Level.WARN);
+        ScriptResourceMonitor scriptResourceMonitor = new ScriptResourceMonitor(0, 0, 100, 100);
+        scriptJobService = new ScriptJobService(scriptResourceMonitor, 2, 16, 60, 600, 100, false);
+        controller = new DevConsoleController(new CompiledScriptCache(256, 600), scriptJobService,
+                new StreamingResultWriter(new ObjectMapper(), 10485760, 65536), scriptResourceMonitor, 4, 10000, backend, 256);
+        StaticApplicationContext context = new StaticApplicationContext();
+        context.registerSingleton("helloController", HelloController.class);
+        context.refresh();
+        controller.setApplicationContext(context);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        controller.closeBackends();
+        scriptJobService.shutdown();
+    }
+
+    @Benchmark
+    public Object repeatedSnippet() {
+        return controller.executeCode("helloController.sayHello('bench')", DevConsoleController.Language.JavaScript);
+    }
+
+    @Benchmark
+    public Object uniqueSnippet() {
+        return controller.executeCode("1 + " + counter++, DevConsoleController.Language.JavaScript);
+    }
+
+    @Benchmark
+    public Object hotLoop() {
+        return controller.executeCode(HOT_LOOP, DevConsoleController.Language.JavaScript);
+    }
+}
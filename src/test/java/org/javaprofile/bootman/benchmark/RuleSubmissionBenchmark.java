@@ -0,0 +1,74 @@
+package org.javaprofile.bootman.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import org.javaprofile.bootman.controller.HelloController;
+import org.jboss.byteman.agent.TransformListener;
+import org.jboss.byteman.agent.install.Install;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a rule add/delete round trip through a temp rule file (the way BytemanController used to submit rules)
+ * with handing the rule text to the agent directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.attach.allowAttachSelf=true")
+public class RuleSubmissionBenchmark {
+    private static final String RULE = "RULE benchmark rule\n" +
+            "CLASS org.javaprofile.bootman.controller.HelloController\n" +
+            "METHOD sayHello\n" +
+            "AT ENTRY\n" +
+            "IF false\n" +
+            "DO traceln(\"never fires\")\n" +
+            "ENDRULE\n";
+
+    private Submit submit;
+    private List<ScriptText> scriptText;
+
+    @Setup(Level.Trial)
+    public void activateAgent() throws Exception {
+        //make sure the target class is loaded, so that every rule submission pays for the retransformation as well
+        new HelloController();
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        Install.install(pid, true, null, 0, new String[0]);
+        submit = new Submit();
+        scriptText = ImmutableList.of(new ScriptText("benchmark", RULE));
+    }
+
+    @TearDown(Level.Trial)
+    public void terminateAgent() {
+        //every round trip deletes the rules it added, so there is nothing left to clean up except the listener
+        TransformListener.terminate();
+    }
+
+    @Benchmark
+    public String tempFileRoundTrip() throws Exception {
+        File ruleFile = File.createTempFile("rule", ".btm");
+        try {
+            Files.write(ruleFile.toPath(), RULE.getBytes(StandardCharsets.UTF_8));
+            List<String> ruleFiles = ImmutableList.of(ruleFile.getAbsolutePath());
+            submit.addRulesFromFiles(ruleFiles);
+            return submit.deleteRulesFromFiles(ruleFiles);
+        } finally {
+            ruleFile.delete();
+        }
+    }
+
+    @Benchmark
+    public String inMemoryRoundTrip() throws Exception {
+        submit.addScripts(scriptText);
+        return submit.deleteScripts(scriptText);
+    }
+}
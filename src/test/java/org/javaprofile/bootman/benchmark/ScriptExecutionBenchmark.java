@@ -0,0 +1,62 @@
+package org.javaprofile.bootman.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.javaprofile.bootman.controller.DevConsoleController;
+import org.javaprofile.bootman.devconsole.CompiledScriptCache;
+import org.javaprofile.bootman.devconsole.ScriptJobService;
+import org.javaprofile.bootman.devconsole.ScriptResourceMonitor;
+import org.javaprofile.bootman.devconsole.StreamingResultWriter;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.StaticApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of DevConsoleController.executeCode for a snippet sent over and over again, which is served from the
+ * compiled script cache, versus a different snippet every time, which has to be compiled on every call. JavaScript
+ * runs on Nashorn here, see {@link JavaScriptBackendBenchmark} for GraalJS.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScriptExecutionBenchmark {
+    @Param({"groovy", "JavaScript"})
+    public DevConsoleController.Language language;
+
+    private DevConsoleController controller;
+    private ScriptJobService scriptJobService;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void createController() {
+        //executeCode logs every snippet and result
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(ch.qos.logback.classic.Level.WARN);
+        ScriptResourceMonitor scriptResourceMonitor = new ScriptResourceMonitor(0, 0, 100, 100);
+        scriptJobService = new ScriptJobService(scriptResourceMonitor, 2, 16, 60, 600, 100, false);
+        controller = new DevConsoleController(new CompiledScriptCache(256, 600), scriptJobService,
+                new StreamingResultWriter(new ObjectMapper(), 10485760, 65536), scriptResourceMonitor, 4, 10000, "nashorn", 256);
+        StaticApplicationContext context = new StaticApplicationContext();
+        context.refresh();
+        controller.setApplicationContext(context);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        scriptJobService.shutdown();
+    }
+
+    @Benchmark
+    public Object repeatedSnippet() {
+        return controller.executeCode("1 + 41", language);
+    }
+
+    @Benchmark
+    public Object uniqueSnippet() {
+        return controller.executeCode("1 + " + counter++, language);
+    }
+}
@@ -0,0 +1,26 @@
+package org.javaprofile.bootman.byteman;
+
+import org.jboss.byteman.agent.ScriptRepository;
+import org.jboss.byteman.agent.Transformer;
+import org.jboss.byteman.rule.Rule;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * InProcessAgentChannel reaches into Byteman internals. When upgrading Byteman, check that these members still do
+ * what the channel expects before changing the version here. Without them, it falls back to the rule listing.
+ */
+class InProcessAgentChannelTest {
+
+    @Test
+    void runsOnThePinnedBytemanVersion() {
+        assertThat(Rule.class.getPackage().getImplementationVersion()).isEqualTo("4.0.9");
+    }
+
+    @Test
+    void findsTheBytemanMembersItReadsThroughReflection() throws Exception {
+        assertThat(Transformer.class.getDeclaredField("scriptRepository").getType()).isEqualTo(ScriptRepository.class);
+        assertThat(Rule.class.getDeclaredMethod("ensureTypeCheckedCompiled").getParameterCount()).isZero();
+    }
+}
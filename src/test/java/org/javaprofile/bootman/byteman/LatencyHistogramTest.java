@@ -0,0 +1,132 @@
+package org.javaprofile.bootman.byteman;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LatencyHistogramTest {
+    private static final int LAST_INDEX = LatencyHistogram.indexOf(Long.MAX_VALUE);
+    private static final long TOP = (1L << 47) - 1;
+
+    private final LatencyHistogram histogram = new LatencyHistogram(LatencyHistogram.newCounts());
+
+    @Test
+    void givesValuesBelow128ABucketOfTheirOwn() {
+        for (long value = 0; value < 128; value++) {
+            assertThat(LatencyHistogram.indexOf(value)).isEqualTo((int) value);
+            assertThat(LatencyHistogram.highestValueAt((int) value)).isEqualTo(value);
+        }
+    }
+
+    @Test
+    void splitsEveryPowerOfTwoInto64SubBuckets() {
+        // 128 to 255 in steps of 2
+        assertThat(LatencyHistogram.indexOf(128)).isEqualTo(128);
+        assertThat(LatencyHistogram.indexOf(129)).isEqualTo(128);
+        assertThat(LatencyHistogram.indexOf(130)).isEqualTo(129);
+        assertThat(LatencyHistogram.highestValueAt(128)).isEqualTo(129);
+        assertThat(LatencyHistogram.indexOf(255)).isEqualTo(191);
+        assertThat(LatencyHistogram.highestValueAt(191)).isEqualTo(255);
+        // 256 to 511 in steps of 4
+        assertThat(LatencyHistogram.indexOf(256)).isEqualTo(192);
+        assertThat(LatencyHistogram.indexOf(259)).isEqualTo(192);
+        assertThat(LatencyHistogram.indexOf(260)).isEqualTo(193);
+        assertThat(LatencyHistogram.highestValueAt(192)).isEqualTo(259);
+        for (int power = 7; power < 47; power++) {
+            long value = 1L << power;
+            int index = LatencyHistogram.indexOf(value);
+            assertThat(index).isEqualTo(128 + (power - 7) * 64);
+            assertThat(LatencyHistogram.indexOf(value - 1)).isEqualTo(index - 1);
+            assertThat(LatencyHistogram.highestValueAt(index - 1)).isEqualTo(value - 1);
+        }
+    }
+
+    @Test
+    void putsValuesAboveTheTopIntoTheLastBucket() {
+        assertThat(LatencyHistogram.indexOf(TOP)).isEqualTo(LAST_INDEX);
+        assertThat(LatencyHistogram.highestValueAt(LAST_INDEX)).isEqualTo(TOP);
+        assertThat(LatencyHistogram.indexOf(TOP + 1)).isEqualTo(LAST_INDEX);
+        assertThat(LatencyHistogram.indexOf(Long.MAX_VALUE)).isEqualTo(LAST_INDEX);
+    }
+
+    @Test
+    void reportsEveryValueWithin1In64() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (17 + random.nextInt(47));
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestValueAt(index);
+            assertThat(highest).isGreaterThanOrEqualTo(value);
+            assertThat(highest - value).isLessThanOrEqualTo(value / 64);
+            if (index > 0) {
+                assertThat(LatencyHistogram.highestValueAt(index - 1)).isLessThan(value);
+            }
+        }
+    }
+
+    @Test
+    void computesPercentilesOfAUniformDistribution() {
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos, false);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getCount()).isEqualTo(1000);
+        assertThat(snapshot.getMeanMicros()).isEqualTo(0.5005);
+        assertThat(snapshot.getMaxMicros()).isEqualTo(1.0);
+        // the top of the bucket holding the 500th, 900th, ... value
+        assertThat(snapshot.getP50Micros()).isEqualTo(0.503);
+        assertThat(snapshot.getP90Micros()).isEqualTo(0.903);
+        assertThat(snapshot.getP99Micros()).isEqualTo(0.991);
+        assertThat(snapshot.getP999Micros()).isEqualTo(0.999);
+    }
+
+    @Test
+    void computesPercentilesOfALongTail() {
+        for (int i = 0; i < 990; i++) {
+            histogram.record(100_000, false);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(10_000_000, true);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getExceptions()).isEqualTo(10);
+        assertThat(snapshot.getP50Micros()).isEqualTo(100.351);
+        assertThat(snapshot.getP99Micros()).isCloseTo(100, within(100 / 64.0));
+        // capped at the max, as the bucket reaches above it
+        assertThat(snapshot.getP999Micros()).isEqualTo(10_000.0);
+        assertThat(snapshot.getMeanMicros()).isEqualTo((990 * 100.0 + 10 * 10_000.0) / 1000);
+    }
+
+    @Test
+    void reportsTheMaxForValuesAboveTheTop() {
+        histogram.record(TOP * 4, false);
+
+        assertThat(histogram.snapshot().getP50Micros()).isEqualTo(TOP * 4 / 1000.0);
+    }
+
+    @Test
+    void recordsNegativeDurationsAsZero() {
+        histogram.record(-5, false);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(1);
+        assertThat(snapshot.getMaxMicros()).isZero();
+        assertThat(snapshot.getP50Micros()).isZero();
+    }
+
+    @Test
+    void reportsZerosWhenEmpty() {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getCount()).isZero();
+        assertThat(snapshot.getMeanMicros()).isZero();
+        assertThat(snapshot.getP999Micros()).isZero();
+    }
+}
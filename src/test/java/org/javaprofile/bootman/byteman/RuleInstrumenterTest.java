@@ -0,0 +1,149 @@
+package org.javaprofile.bootman.byteman;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RuleInstrumenterTest {
+    private final RuleInstrumenter instrumenter = new RuleInstrumenter(true);
+
+    private static String rule(String name, String target, String condition, String actions) {
+        return "RULE " + name + "\n"
+                + "CLASS " + target + "\n"
+                + "METHOD sayHello\n"
+                + "AT ENTRY\n"
+                + "IF " + condition + "\n"
+                + "DO " + actions + "\n"
+                + "ENDRULE";
+    }
+
+    @Test
+    void wrapsConditionAndCompletesActions() {
+        RuleInstrumenter.InstrumentedScript instrumented = instrumenter.instrument(
+                rule("trace", "com.example.Hello", "$1 != null", "traceln(\"hello \" + $1);"), 1, false);
+
+        assertThat(instrumented.getSkippedRules()).isEmpty();
+        assertThat(instrumented.getScript()).isEqualTo("RULE trace\n"
+                + "HELPER " + BootmanHelper.class.getName() + "\n"
+                + "CLASS com.example.Hello\n"
+                + "METHOD sayHello\n"
+                + "AT ENTRY\n"
+                + "IF bootmanConditionPassed($1 != null)\n"
+                + "DO traceln(\"hello \" + $1);\n"
+                + "bootmanRuleCompleted()\n"
+                + "ENDRULE");
+    }
+
+    @Test
+    void completesBeforeFinalReturn() {
+        String script = instrumenter.instrument(rule("ret", "com.example.Hello", "true", "traceln(\"x\");\nRETURN \"stub\""));
+
+        assertThat(script).contains("DO traceln(\"x\");\nbootmanRuleCompleted();\nRETURN \"stub\"\nENDRULE");
+    }
+
+    @Test
+    void completesBeforeFinalThrow() {
+        String script = instrumenter.instrument(rule("throw", "com.example.Hello", "true", "THROW new IllegalStateException(\"boom\");"));
+
+        assertThat(script).contains("DO bootmanRuleCompleted();\nTHROW new IllegalStateException(\"boom\")\nENDRULE");
+    }
+
+    @Test
+    void completesBeforeFinalThrowWithSemicolonsInLiterals() {
+        String script = instrumenter.instrument(rule("literal", "com.example.Hello", "true",
+                "traceln(\"a; b\");\nTHROW new RuntimeException(\"c; \\\"d;\\\" ';'\")"));
+
+        assertThat(script).contains("DO traceln(\"a; b\");\nbootmanRuleCompleted();\nTHROW new RuntimeException(\"c; \\\"d;\\\" ';'\")\nENDRULE");
+    }
+
+    @Test
+    void doesNotTakeReturnInALiteralForTheFinalAction() {
+        String script = instrumenter.instrument(rule("trace", "com.example.Hello", "true", "traceln(\"x; return y\")"));
+
+        assertThat(script).contains("DO traceln(\"x; return y\");\nbootmanRuleCompleted()\nENDRULE");
+    }
+
+    @Test
+    void skipsRulesWithUnclosedLiteralsInTheirActions() {
+        String rule = rule("unclosed", "com.example.Hello", "true", "traceln(\"a; b)");
+
+        RuleInstrumenter.InstrumentedScript instrumented = instrumenter.instrument(rule, 1, false);
+
+        assertThat(instrumented.getScript()).isEqualTo(rule);
+        assertThat(instrumented.getSkippedRules().get("unclosed")).contains("not closed");
+    }
+
+    @Test
+    void replacesNothing() {
+        String script = instrumenter.instrument(rule("nothing", "com.example.Hello", "true", "NOTHING"));
+
+        assertThat(script).contains("DO bootmanRuleCompleted()\nENDRULE");
+    }
+
+    @Test
+    void addsDebugRequestAndSamplingGuards() {
+        String script = instrumenter.instrument(rule("guarded", "com.example.Hello", "true", "NOTHING"), 0.25, true).getScript();
+
+        assertThat(script).contains("IF debugRequest() AND bootmanSampled(0.25) AND bootmanConditionPassed(true)\n");
+    }
+
+    @Test
+    void keepsTextBetweenRules() {
+        String script = "# first\n" + rule("a", "com.example.A", "true", "NOTHING") + "\n\n# second\n"
+                + rule("b", "com.example.B", "true", "NOTHING") + "\n";
+
+        String instrumented = instrumenter.instrument(script);
+
+        assertThat(instrumented).startsWith("# first\nRULE a\n").contains("ENDRULE\n\n# second\nRULE b\n").endsWith("ENDRULE\n");
+    }
+
+    @Test
+    void skipsRulesWithOwnHelper() {
+        String rule = "RULE own\nCLASS com.example.Hello\nMETHOD sayHello\nHELPER com.example.MyHelper\nIF true\nDO NOTHING\nENDRULE";
+
+        RuleInstrumenter.InstrumentedScript instrumented = instrumenter.instrument(rule, 1, true);
+
+        assertThat(instrumented.getScript()).isEqualTo(rule);
+        assertThat(instrumented.getSkippedRules()).containsOnlyKeys("own");
+        assertThat(instrumented.getSkippedRules().get("own")).contains("helper");
+    }
+
+    @Test
+    void skipsRulesTargetingJdkClasses() {
+        for (String target : new String[]{"java.lang.Thread", "javax.net.ssl.SSLContext", "jdk.internal.misc.Unsafe", "sun.nio.ch.Net", "^java.io.InputStream"}) {
+            String rule = rule("jdk", target, "true", "NOTHING");
+
+            RuleInstrumenter.InstrumentedScript instrumented = instrumenter.instrument(rule, 0.5, false);
+
+            assertThat(instrumented.getScript()).isEqualTo(rule);
+            assertThat(instrumented.getSkippedRules().get("jdk")).contains("JDK class");
+        }
+    }
+
+    @Test
+    void skipsRulesWithoutConditionOrActions() {
+        String rule = "RULE partial\nCLASS com.example.Hello\nMETHOD sayHello\nDO NOTHING\nENDRULE";
+
+        RuleInstrumenter.InstrumentedScript instrumented = instrumenter.instrument(rule, 1, true);
+
+        assertThat(instrumented.getScript()).isEqualTo(rule);
+        assertThat(instrumented.getSkippedRules()).containsOnlyKeys("partial");
+    }
+
+    @Test
+    void reportsOnlySkippedRules() {
+        String script = rule("ok", "com.example.Hello", "true", "NOTHING") + "\n" + rule("jdk", "java.lang.Thread", "true", "NOTHING");
+
+        assertThat(instrumenter.instrument(script, 1, true).getSkippedRules()).containsOnlyKeys("jdk");
+    }
+
+    @Test
+    void skipsEveryRuleWhenDisabled() {
+        String script = rule("a", "com.example.A", "true", "NOTHING") + "\n" + rule("b", "com.example.B", "true", "NOTHING");
+
+        RuleInstrumenter.InstrumentedScript instrumented = new RuleInstrumenter(false).instrument(script, 1, true);
+
+        assertThat(instrumented.getScript()).isEqualTo(script);
+        assertThat(instrumented.getSkippedRules()).containsOnlyKeys("a", "b");
+    }
+}
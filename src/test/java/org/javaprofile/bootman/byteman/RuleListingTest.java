@@ -0,0 +1,49 @@
+package org.javaprofile.bootman.byteman;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RuleListingTest {
+    // shaped like the listing of Byteman 4.0.9
+    private static final String LISTING = "# File addRules line 5\n"
+            + "RULE good\n"
+            + "CLASS com.example.Hello\n"
+            + "METHOD sayHello\n"
+            + "IF true\n"
+            + "DO traceln(\"good\")\n"
+            + "ENDRULE\n"
+            + "Transformed in:\n"
+            + "loader: jdk.internal.loader.ClassLoaders$AppClassLoader@5cb0d902\n"
+            + "trigger method: com.example.Hello.sayHello(java.lang.String) java.lang.String\n"
+            + "compiled successfully\n"
+            + "# File addRules line 12\n"
+            + "RULE bad\n"
+            + "CLASS com.example.Hello\n"
+            + "METHOD sayHello\n"
+            + "IF true\n"
+            + "DO noSuchThing()\n"
+            + "ENDRULE\n"
+            + "Transformed in:\n"
+            + "loader: jdk.internal.loader.ClassLoaders$AppClassLoader@5cb0d902\n"
+            + "trigger method: com.example.Hello.sayHello(java.lang.String) java.lang.String\n"
+            + "failed to compile\n"
+            + "Rule.ensureTypeCheckedCompiled : error type checking rule bad\n";
+
+    @Test
+    void readsTheRuleTexts() {
+        assertThat(RuleListing.installedRules(LISTING))
+                .containsOnlyKeys("good", "bad")
+                .containsEntry("good", "RULE good\nCLASS com.example.Hello\nMETHOD sayHello\nIF true\nDO traceln(\"good\")\nENDRULE");
+    }
+
+    @Test
+    void reportsErrorsOfTheRequestedRulesOnly() {
+        assertThat(RuleListing.ruleErrors(LISTING, Arrays.asList("good", "bad"))).containsOnlyKeys("bad");
+        assertThat(RuleListing.ruleErrors(LISTING, Collections.singleton("good"))).isEmpty();
+        assertThat(RuleListing.ruleErrors("", Collections.singleton("bad"))).isEmpty();
+    }
+}
@@ -0,0 +1,42 @@
+package org.javaprofile.bootman.byteman;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RuleMetricsTest {
+
+    @Test
+    void keepsOneSetOfCountersPerRule() {
+        LongAdder[] counters = RuleMetrics.forRule(RuleMetrics.shared(), "RuleMetricsTest same");
+
+        assertThat(RuleMetrics.forRule(RuleMetrics.shared(), "RuleMetricsTest same")).isSameAs(counters);
+        assertThat(RuleMetrics.forRule(RuleMetrics.shared(), "RuleMetricsTest other")).isNotSameAs(counters);
+    }
+
+    @Test
+    void computesAveragesPerTriggerAndPerCompletion() {
+        LongAdder[] counters = RuleMetrics.forRule(RuleMetrics.shared(), "RuleMetricsTest averages");
+        counters[RuleMetrics.TRIGGERED].add(4);
+        counters[RuleMetrics.CONDITION_PASSED].add(2);
+        counters[RuleMetrics.CONDITION_NANOS].add(8_000);
+        counters[RuleMetrics.COMPLETED].add(2);
+        counters[RuleMetrics.BODY_NANOS].add(6_000);
+
+        RuleMetrics.RuleStatistics statistics = RuleMetrics.statistics("RuleMetricsTest averages");
+
+        assertThat(statistics.getTriggered()).isEqualTo(4);
+        assertThat(statistics.getConditionPassed()).isEqualTo(2);
+        assertThat(statistics.getCompleted()).isEqualTo(2);
+        assertThat(statistics.getAverageConditionMicros()).isEqualTo(2.0);
+        assertThat(statistics.getAverageBodyMicros()).isEqualTo(3.0);
+        assertThat(statistics.getTotalOverheadMillis()).isEqualTo(0.014);
+    }
+
+    @Test
+    void hasNoStatisticsForRulesNeverTriggered() {
+        assertThat(RuleMetrics.statistics("RuleMetricsTest never triggered")).isNull();
+    }
+}
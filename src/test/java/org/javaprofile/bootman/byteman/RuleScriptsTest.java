@@ -0,0 +1,67 @@
+package org.javaprofile.bootman.byteman;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RuleScriptsTest {
+    private static final String SCRIPT = "# tracing\n"
+            + "RULE trace hello\n"
+            + "CLASS com.example.Hello\n"
+            + "METHOD sayHello\n"
+            + "IF true\n"
+            + "DO traceln(\"hello\")\n"
+            + "ENDRULE\n"
+            + "\n"
+            + "  RULE   indented rule  \n"
+            + "CLASS com.example.Hello\n"
+            + "METHOD sayBye\n"
+            + "IF true\n"
+            + "DO NOTHING\n"
+            + "  ENDRULE\n";
+
+    @Test
+    void splitsRulesByName() {
+        Map<String, String> rules = RuleScripts.split(SCRIPT);
+
+        assertThat(rules).containsOnlyKeys("trace hello", "indented rule");
+        assertThat(rules.get("trace hello")).startsWith("RULE trace hello\n").endsWith("DO traceln(\"hello\")\nENDRULE");
+        assertThat(rules.get("indented rule")).startsWith("RULE   indented rule").endsWith("ENDRULE");
+    }
+
+    @Test
+    void listsRuleNames() {
+        assertThat(RuleScripts.ruleNames(SCRIPT)).containsExactly("trace hello", "indented rule");
+        assertThat(RuleScripts.ruleNames("RULE a\nRULE b\n")).containsExactly("a", "b");
+    }
+
+    @Test
+    void rejectsDuplicateRuleNames() {
+        String script = "RULE a\nDO NOTHING\nENDRULE\nRULE a\nDO NOTHING\nENDRULE\n";
+
+        assertThatThrownBy(() -> RuleScripts.split(script)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("a");
+    }
+
+    @Test
+    void rejectsMissingEndRule() {
+        assertThatThrownBy(() -> RuleScripts.split("RULE a\nDO NOTHING\n"))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("missing ENDRULE for rule a");
+    }
+
+    @Test
+    void rewritesRulesAndKeepsEverythingElse() {
+        String rewritten = RuleScripts.rewrite(SCRIPT, (name, text) -> "<" + name + ">");
+
+        assertThat(rewritten).isEqualTo("# tracing\n<trace hello>\n\n<indented rule>\n");
+    }
+
+    @Test
+    void doesNotMistakeRuleInsideTheTextForANewRule() {
+        String script = "RULE a\nDO traceln(\"RULE b\")\nENDRULE\n";
+
+        assertThat(RuleScripts.split(script)).containsOnlyKeys("a");
+    }
+}
@@ -0,0 +1,168 @@
+package org.javaprofile.bootman.byteman;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RuleSetDeployerTest {
+    // with rule metrics disabled the rules reach the agent as they are
+    private final RuleSetDeployer deployer = new RuleSetDeployer(new RuleInstrumenter(false));
+    private final FakeAgentChannel channel = new FakeAgentChannel();
+
+    private static String rule(String name, String action) {
+        return "RULE " + name + "\nCLASS com.example.Hello\nMETHOD sayHello\nIF true\nDO " + action + "\nENDRULE";
+    }
+
+    @Test
+    void submitsOnlyAddedAndChangedRulesAndDeletesRemovedOnes() throws Exception {
+        deployer.deploy(channel, rule("a", "NOTHING") + "\n" + rule("b", "NOTHING") + "\n" + rule("c", "NOTHING"), null);
+        channel.submissions.clear();
+
+        RuleSetDeployer.RuleSetDeployment deployment = deployer.deploy(channel,
+                rule("a", "NOTHING") + "\n" + rule("b", "traceln(\"b\")") + "\n" + rule("d", "NOTHING"), null);
+
+        assertThat(deployment.isRolledBack()).isFalse();
+        assertThat(deployment.getVersion()).isEqualTo(2);
+        assertThat(deployment.getAdded()).containsExactly("d");
+        assertThat(deployment.getChanged()).containsExactly("b");
+        assertThat(deployment.getUnchanged()).containsExactly("a");
+        assertThat(deployment.getRemoved()).containsExactly("c");
+        // added and changed rules go to the agent in a single submission
+        assertThat(channel.submissions).hasSize(1);
+        assertThat(RuleScripts.ruleNames(channel.submissions.get(0))).containsExactly("d", "b");
+        assertThat(channel.installed).containsOnlyKeys("a", "b", "d");
+    }
+
+    @Test
+    void doesNothingForTheDeployedRuleSet() throws Exception {
+        String ruleSet = rule("a", "NOTHING");
+        deployer.deploy(channel, ruleSet, null);
+        channel.submissions.clear();
+
+        RuleSetDeployer.RuleSetDeployment deployment = deployer.deploy(channel, ruleSet, null);
+
+        assertThat(deployment.getVersion()).isEqualTo(1);
+        assertThat(deployment.getUnchanged()).containsExactly("a");
+        assertThat(channel.submissions).isEmpty();
+    }
+
+    @Test
+    void reinstallsDeployedRulesMissingFromTheAgent() throws Exception {
+        String ruleSet = rule("a", "NOTHING");
+        deployer.deploy(channel, ruleSet, null);
+        channel.installed.clear();
+
+        RuleSetDeployer.RuleSetDeployment deployment = deployer.deploy(channel, ruleSet, null);
+
+        assertThat(deployment.getAdded()).containsExactly("a");
+        assertThat(channel.installed).containsOnlyKeys("a");
+    }
+
+    @Test
+    void refusesAnUnexpectedVersion() throws Exception {
+        deployer.deploy(channel, rule("a", "NOTHING"), 0L);
+
+        assertThatThrownBy(() -> deployer.deploy(channel, rule("a", "traceln(\"a\")"), 0L))
+                .isInstanceOf(IllegalStateException.class).hasMessageContaining("version 1");
+        assertThat(deployer.current().getVersion()).isEqualTo(1);
+        assertThat(deployer.current().getRules().get("a")).isEqualTo(rule("a", "NOTHING"));
+    }
+
+    @Test
+    void rollsBackWhenARuleFails() throws Exception {
+        deployer.deploy(channel, rule("a", "NOTHING") + "\n" + rule("b", "NOTHING"), null);
+        channel.failingRules.add("c");
+
+        RuleSetDeployer.RuleSetDeployment deployment = deployer.deploy(channel,
+                rule("a", "traceln(\"a\")") + "\n" + rule("c", "broken()"), null);
+
+        assertThat(deployment.isRolledBack()).isTrue();
+        assertThat(deployment.getVersion()).isEqualTo(1);
+        assertThat(deployment.getErrors()).containsOnlyKeys("c");
+        // the changed rule is back at its old text, the added one is gone and the removed one was never deleted
+        assertThat(channel.installed).containsOnlyKeys("a", "b");
+        assertThat(channel.installed.get("a")).isEqualTo(rule("a", "NOTHING"));
+        assertThat(deployer.current().getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    void rollsBackWhenTheAgentRejectsTheSubmission() throws Exception {
+        deployer.deploy(channel, rule("a", "NOTHING"), null);
+        channel.rejectSubmissions = true;
+
+        RuleSetDeployer.RuleSetDeployment deployment = deployer.deploy(channel, rule("a", "traceln(\"a\")") + "\n" + rule("b", "NOTHING"), null);
+
+        assertThat(deployment.isRolledBack()).isTrue();
+        assertThat(deployment.getMessage()).contains("cannot parse");
+        assertThat(deployer.current().getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    void redeploysRulesReplacedThroughAddRules() throws Exception {
+        String ruleSet = rule("a", "NOTHING");
+        deployer.deploy(channel, ruleSet, null);
+        deployer.forget(rule("a", "traceln(\"replaced\")"));
+
+        RuleSetDeployer.RuleSetDeployment deployment = deployer.deploy(channel, ruleSet, null);
+
+        assertThat(deployment.getChanged()).containsExactly("a");
+        assertThat(deployment.getVersion()).isEqualTo(2);
+    }
+
+    /**
+     * Keeps the installed rules in a map, like the agent's script repository.
+     */
+    private static class FakeAgentChannel implements AgentChannel {
+        private final Map<String, String> installed = new LinkedHashMap<>();
+        private final List<String> submissions = new ArrayList<>();
+        private final List<String> failingRules = new ArrayList<>();
+        private boolean rejectSubmissions;
+
+        @Override
+        public String addRules(String scriptName, String rules) {
+            if (rejectSubmissions) {
+                rejectSubmissions = false;
+                throw new IllegalArgumentException("cannot parse " + scriptName);
+            }
+            submissions.add(rules);
+            installed.putAll(RuleScripts.split(rules));
+            return "install " + RuleScripts.ruleNames(rules);
+        }
+
+        @Override
+        public String deleteRules(String scriptName, String rules) {
+            installed.keySet().removeAll(RuleScripts.ruleNames(rules));
+            return "uninstall " + RuleScripts.ruleNames(rules);
+        }
+
+        @Override
+        public String deleteAllRules() {
+            installed.clear();
+            return "uninstall all";
+        }
+
+        @Override
+        public String listAllRules() {
+            return String.join("\n", installed.values());
+        }
+
+        @Override
+        public Map<String, String> installedRules() {
+            return new LinkedHashMap<>(installed);
+        }
+
+        @Override
+        public Map<String, String> ruleErrors(Collection<String> ruleNames) {
+            Map<String, String> errors = new LinkedHashMap<>();
+            ruleNames.stream().filter(failingRules::contains).forEach(name -> errors.put(name, "failed to compile"));
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.javaprofile.bootman.byteman;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TraceRingBufferTest {
+    private static final int PRODUCERS = 4;
+    private static final int OFFERS_PER_PRODUCER = 100_000;
+
+    @Test
+    void roundsTheCapacityUpToAPowerOfTwo() {
+        assertThat(TraceRingBuffer.unshared(1000).getCapacity()).isEqualTo(1024);
+        assertThat(TraceRingBuffer.unshared(1024).getCapacity()).isEqualTo(1024);
+        assertThat(TraceRingBuffer.unshared(0).getCapacity()).isEqualTo(2);
+    }
+
+    @Test
+    void dropsAndCountsEntriesOnceFull() {
+        TraceRingBuffer buffer = TraceRingBuffer.unshared(8);
+        for (int i = 0; i < 20; i++) {
+            assertThat(buffer.offer("rule", "message-" + i)).isEqualTo(i < 8);
+        }
+        assertThat(buffer.getWritten()).isEqualTo(8);
+        assertThat(buffer.getDropped()).isEqualTo(12);
+
+        List<String> messages = new ArrayList<>();
+        assertThat(buffer.drain((sequence, timestamp, ruleName, threadName, message) -> messages.add(sequence + ":" + message), 100)).isEqualTo(8);
+        assertThat(messages).containsExactly("0:message-0", "1:message-1", "2:message-2", "3:message-3",
+                "4:message-4", "5:message-5", "6:message-6", "7:message-7");
+
+        // draining frees the slots again, and the next lap keeps the sequence numbers going
+        assertThat(buffer.offer("rule", "message-20")).isTrue();
+        buffer.drain((sequence, timestamp, ruleName, threadName, message) -> messages.add(sequence + ":" + message), 100);
+        assertThat(messages).endsWith("8:message-20");
+    }
+
+    @Test
+    void drainsAtMostMaxEntries() {
+        TraceRingBuffer buffer = TraceRingBuffer.unshared(16);
+        for (int i = 0; i < 10; i++) {
+            buffer.offer("rule", "message-" + i);
+        }
+        List<Long> sequences = new ArrayList<>();
+
+        assertThat(buffer.drain((sequence, timestamp, ruleName, threadName, message) -> sequences.add(sequence), 4)).isEqualTo(4);
+        assertThat(buffer.drain((sequence, timestamp, ruleName, threadName, message) -> sequences.add(sequence), 100)).isEqualTo(6);
+        assertThat(buffer.drain((sequence, timestamp, ruleName, threadName, message) -> sequences.add(sequence), 100)).isZero();
+        assertThat(sequences).containsExactly(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L);
+    }
+
+    /**
+     * Producers outrun the drainer by far with a small buffer, so they keep lapping it. Every entry accepted must come
+     * out exactly once, in sequence order, with the fields written together, and every entry refused is counted.
+     */
+    @Test
+    void losesNoAcceptedEntryUnderConcurrentProducers() throws Exception {
+        TraceRingBuffer buffer = TraceRingBuffer.unshared(64);
+        long[] accepted = new long[PRODUCERS];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int i = 0; i < OFFERS_PER_PRODUCER; i++) {
+                    if (buffer.offer("rule-" + producer, producer + ":" + i)) {
+                        accepted[producer]++;
+                    }
+                }
+            }, "producer-" + producer);
+            producers.add(thread);
+            thread.start();
+        }
+
+        AtomicLong expectedSequence = new AtomicLong();
+        long[] lastIndex = new long[PRODUCERS];
+        long[] received = new long[PRODUCERS];
+        Arrays.fill(lastIndex, -1);
+        List<String> problems = new ArrayList<>();
+        TraceRingBuffer.EntryConsumer check = (sequence, timestamp, ruleName, threadName, message) -> {
+            if (sequence != expectedSequence.getAndIncrement()) {
+                problems.add("sequence " + sequence + " instead of " + (expectedSequence.get() - 1));
+            }
+            String[] parts = message.split(":");
+            int producer = Integer.parseInt(parts[0]);
+            long index = Long.parseLong(parts[1]);
+            if (!ruleName.equals("rule-" + producer) || !threadName.equals("producer-" + producer)) {
+                problems.add("torn entry " + ruleName + " " + threadName + " " + message);
+            }
+            // a producer claims its sequence numbers in program order, so its entries come out in that order too
+            if (index <= lastIndex[producer]) {
+                problems.add("entry " + message + " after " + producer + ":" + lastIndex[producer]);
+            }
+            lastIndex[producer] = index;
+            received[producer]++;
+        };
+
+        start.countDown();
+        // a thread seen terminated has all its writes visible, accepted included
+        while (producers.stream().anyMatch(Thread::isAlive)) {
+            buffer.drain(check, 16);
+        }
+        buffer.drain(check, Integer.MAX_VALUE);
+
+        assertThat(problems).isEmpty();
+        long acceptedTotal = 0;
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertThat(received[p]).isEqualTo(accepted[p]);
+            acceptedTotal += accepted[p];
+        }
+        assertThat(expectedSequence.get()).isEqualTo(acceptedTotal);
+        assertThat(buffer.getWritten()).isEqualTo(acceptedTotal);
+        assertThat(buffer.getDropped()).isEqualTo((long) PRODUCERS * OFFERS_PER_PRODUCER - acceptedTotal);
+        // the buffer was lapped, and it still is not stuck
+        assertThat(buffer.getDropped()).isPositive();
+        assertThat(buffer.offer("rule", "after")).isTrue();
+    }
+}
@@ -0,0 +1,72 @@
+package org.javaprofile.bootman.byteman;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TraceSinkTest {
+    private final TraceRingBuffer buffer = TraceRingBuffer.unshared(16);
+    // drained by the test only
+    private final TraceSink sink = new TraceSink(buffer, 5, 3_600_000, false, 1000);
+
+    @AfterEach
+    void shutdown() {
+        sink.shutdown();
+    }
+
+    private static String messages(TraceSink.TracePage page) {
+        return page.getEntries().stream().map(TraceSink.TraceEntry::getMessage).collect(Collectors.joining(","));
+    }
+
+    @Test
+    void retainsTheMostRecentEntries() {
+        for (int i = 0; i < 12; i++) {
+            buffer.offer("rule", "m" + i);
+        }
+        sink.drain();
+
+        TraceSink.TracePage page = sink.read(-1, 100);
+
+        assertThat(messages(page)).isEqualTo("m7,m8,m9,m10,m11");
+        assertThat(page.getEntries().get(0).getSequence()).isEqualTo(7);
+        assertThat(page.getNextSince()).isEqualTo(11);
+        assertThat(page.getWritten()).isEqualTo(12);
+        assertThat(page.getDrained()).isEqualTo(12);
+        assertThat(page.getDropped()).isZero();
+    }
+
+    @Test
+    void tailsFromTheLastSequenceSeen() {
+        for (int i = 0; i < 3; i++) {
+            buffer.offer("rule", "m" + i);
+        }
+        sink.drain();
+        TraceSink.TracePage first = sink.read(-1, 2);
+        assertThat(messages(first)).isEqualTo("m0,m1");
+
+        buffer.offer("rule", "m3");
+        sink.drain();
+        TraceSink.TracePage second = sink.read(first.getNextSince(), 100);
+
+        assertThat(messages(second)).isEqualTo("m2,m3");
+        assertThat(sink.read(second.getNextSince(), 100).getEntries()).isEmpty();
+    }
+
+    @Test
+    void countsEntriesDroppedByAFullBufferButNotThoseLeavingTheWindow() {
+        for (int i = 0; i < 20; i++) {
+            buffer.offer("rule", "m" + i);
+        }
+        sink.drain();
+
+        TraceSink.TracePage page = sink.read(-1, 100);
+
+        // 16 fit into the buffer, 5 of them are retained
+        assertThat(messages(page)).isEqualTo("m11,m12,m13,m14,m15");
+        assertThat(page.getDropped()).isEqualTo(4);
+        assertThat(page.getDrained()).isEqualTo(16);
+    }
+}
@@ -0,0 +1,47 @@
+package org.javaprofile.bootman.devconsole;
+
+import org.junit.jupiter.api.Test;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompiledScriptCacheTest {
+    private final CompiledScriptCache cache = new CompiledScriptCache(16, 600);
+    private final ScriptEngine engine = new ScriptEngineManager().getEngineByName("groovy");
+
+    @Test
+    void compilesARepeatedSnippetOnce() throws Exception {
+        CompiledScript first = cache.getOrCompile("groovy", "shared", engine, "1 + 1");
+        CompiledScript second = cache.getOrCompile("groovy", "shared", engine, "1 + 1");
+
+        assertThat(second).isSameAs(first);
+        assertThat(second.eval()).isEqualTo(2);
+        assertThat(cache.getStatistics().getCompileCount()).isEqualTo(1);
+        assertThat(cache.getStatistics().getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void keysByLanguageScopeAndCode() throws Exception {
+        CompiledScript compiled = cache.getOrCompile("groovy", "shared", engine, "1 + 1");
+
+        assertThat(cache.getOrCompile("other", "shared", engine, "1 + 1")).isNotSameAs(compiled);
+        assertThat(cache.getOrCompile("groovy", "engine-1", engine, "1 + 1")).isNotSameAs(compiled);
+        assertThat(cache.getOrCompile("groovy", "shared", engine, "1 + 2")).isNotSameAs(compiled);
+        assertThat(cache.getStatistics().getCompileCount()).isEqualTo(4);
+        assertThat(cache.getStatistics().getSize()).isEqualTo(4);
+    }
+
+    @Test
+    void passesCompilationErrorsOnAndDoesNotCacheThem() {
+        assertThatThrownBy(() -> cache.getOrCompile("groovy", "shared", engine, "def (")).isInstanceOf(ScriptException.class);
+        assertThatThrownBy(() -> cache.getOrCompile("groovy", "shared", engine, "def (")).isInstanceOf(ScriptException.class);
+
+        assertThat(cache.getStatistics().getCompileFailureCount()).isEqualTo(2);
+        assertThat(cache.getStatistics().getSize()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,69 @@
+package org.javaprofile.bootman.devconsole;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GraalJsBackendTest {
+    // a single context, so every script runs on the context of the previous one unless it was closed
+    private final GraalJsBackend backend = new GraalJsBackend(1, 1000, 16);
+    private final Bindings beans = new SimpleBindings();
+
+    @AfterEach
+    void close() {
+        backend.close();
+    }
+
+    private Map<?, ?> statistics() {
+        return (Map<?, ?>) backend.getStatistics();
+    }
+
+    @Test
+    void keepsVariablesPrivateToTheirExecution() throws Exception {
+        backend.execute("var x = 1", beans);
+        assertThat(backend.execute("typeof x", beans)).isEqualTo("undefined");
+
+        backend.execute("function f() { return 2; }", beans);
+        assertThat(backend.execute("typeof f", beans)).isEqualTo("undefined");
+
+        backend.execute("y = 3", beans);
+        assertThat(backend.execute("typeof y", beans)).isEqualTo("undefined");
+
+        backend.execute("JSON = null", beans);
+        assertThat(backend.execute("typeof JSON.stringify", beans)).isEqualTo("function");
+    }
+
+    @Test
+    void dropsVariablesOfFailedScripts() throws Exception {
+        assertThatThrownBy(() -> backend.execute("var z = 1; throw new Error('boom')", beans)).hasMessageContaining("boom");
+
+        assertThat(backend.execute("typeof z", beans)).isEqualTo("undefined");
+    }
+
+    @Test
+    void reusesTheContextOfScriptsLeavingTheGlobalsAlone() throws Exception {
+        backend.execute("let a = 1; const b = 2; a + b", beans);
+        backend.execute("(function () { var c = 3; return c; })()", beans);
+        backend.execute("var d = 4", beans);
+
+        assertThat(statistics().get("createdContexts")).isEqualTo(1);
+        assertThat(statistics().get("discardedContexts")).isEqualTo(1);
+    }
+
+    @Test
+    void parsesARepeatedSnippetOnce() throws Exception {
+        beans.put("greeting", "hello");
+
+        assertThat(backend.execute("greeting + ' world'", beans)).isEqualTo("hello world");
+        assertThat(backend.execute("greeting + ' world'", beans)).isEqualTo("hello world");
+
+        assertThat(statistics().get("sourceMissCount")).isEqualTo(1L);
+        assertThat(statistics().get("sourceHitCount")).isEqualTo(1L);
+    }
+}
@@ -0,0 +1,63 @@
+package org.javaprofile.bootman.devconsole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingResultWriterTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StreamingResultWriter writer = new StreamingResultWriter(objectMapper, 1024, 64);
+
+    private List<String> stream(Object result, long page, long offset, int limit, long maxBytes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.stream(result, page, offset, limit, maxBytes).writeTo(out);
+        return Arrays.asList(new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+    }
+
+    private JsonNode summary(List<String> lines) throws Exception {
+        return objectMapper.readTree(lines.get(lines.size() - 1)).get("summary");
+    }
+
+    @Test
+    void resumesAtNextOffsetWhenTheByteBudgetRunsOut() throws Exception {
+        List<String> elements = Arrays.asList("aaaa", "bbbb", "cccc", "dddd");
+
+        // every element takes 7 bytes with quotes and new line, so 2 of them fit into 20 bytes
+        List<String> first = stream(elements, 0, -1, 0, 20);
+        assertThat(first.subList(0, first.size() - 1)).containsExactly("\"aaaa\"", "\"bbbb\"");
+        assertThat(summary(first).get("truncatedByByteBudget").asBoolean()).isTrue();
+        assertThat(summary(first).get("nextOffset").asLong()).isEqualTo(2);
+
+        List<String> second = stream(elements, 0, 2, 0, 20);
+        assertThat(second.subList(0, second.size() - 1)).containsExactly("\"cccc\"", "\"dddd\"");
+        assertThat(summary(second).get("hasMore").asBoolean()).isFalse();
+    }
+
+    @Test
+    void reportsAndSkipsElementsLargerThanTheBudget() throws Exception {
+        List<String> elements = Arrays.asList("aaaa", "this one is far too long", "bbbb");
+
+        List<String> lines = stream(elements, 0, -1, 0, 20);
+
+        assertThat(lines.subList(0, lines.size() - 1)).containsExactly("\"aaaa\"", "\"bbbb\"");
+        JsonNode summary = summary(lines);
+        assertThat(summary.get("hasMore").asBoolean()).isFalse();
+        assertThat(summary.get("oversizedCount").asLong()).isEqualTo(1);
+        assertThat(summary.get("oversized").get(0).get("index").asLong()).isEqualTo(1);
+    }
+
+    @Test
+    void startsAtThePageUnlessAnOffsetIsGiven() throws Exception {
+        List<Integer> elements = Arrays.asList(0, 1, 2, 3, 4);
+
+        assertThat(stream(elements, 1, -1, 2, 0)).startsWith("2", "3");
+        assertThat(stream(elements, 1, 3, 2, 0)).startsWith("3", "4");
+    }
+}
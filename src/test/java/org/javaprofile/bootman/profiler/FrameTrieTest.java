@@ -0,0 +1,99 @@
+package org.javaprofile.bootman.profiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FrameTrieTest {
+    private static final int MAX_DEPTH = 64;
+
+    @Test
+    void mergesCallPathsRootFirst() {
+        FrameTrie trie = new FrameTrie(100);
+
+        trie.add(stack("C.c:1", "B.b:1", "A.a:1"), MAX_DEPTH);
+        // another line in the same methods is the same frame
+        trie.add(stack("C.c:2", "B.b:3", "A.a:1"), MAX_DEPTH);
+        trie.add(stack("B.b:1", "A.a:1"), MAX_DEPTH);
+        trie.add(stack("D.d:1", "A.a:1"), MAX_DEPTH);
+        trie.add(stack(), MAX_DEPTH);
+
+        assertThat(collapsed(trie, 1)).isEqualTo("A.a;B.b 1\nA.a;B.b;C.c 2\nA.a;D.d 1\n");
+        assertThat(trie.getSamples()).isEqualTo(4);
+        assertThat(trie.getTruncatedSamples()).isZero();
+        assertThat(trie.getNodeCount()).isEqualTo(5);
+        assertThat(trie.getFrameCount()).isEqualTo(4);
+    }
+
+    @Test
+    void leavesOutPathsBelowMinCount() {
+        FrameTrie trie = new FrameTrie(100);
+        trie.add(stack("B.b:1", "A.a:1"), MAX_DEPTH);
+        trie.add(stack("B.b:1", "A.a:1"), MAX_DEPTH);
+        trie.add(stack("C.c:1", "A.a:1"), MAX_DEPTH);
+
+        assertThat(collapsed(trie, 2)).isEqualTo("A.a;B.b 2\n");
+    }
+
+    @Test
+    void hangsStacksOfMaxDepthBelowTheDeepStackRoot() {
+        FrameTrie trie = new FrameTrie(100);
+        trie.add(stack("C.c:1", "B.b:1", "A.a:1"), 3);
+        trie.add(stack("B.b:1", "A.a:1"), 3);
+
+        assertThat(collapsed(trie, 1)).isEqualTo("[deep stack];A.a;B.b;C.c 1\nA.a;B.b 1\n");
+        assertThat(trie.getNodeCount()).isEqualTo(7);
+        assertThat(trie.getTruncatedSamples()).isZero();
+    }
+
+    @Test
+    void countsSamplesAtTheDeepestNodeOnceFull() {
+        // the root and two frames
+        FrameTrie trie = new FrameTrie(3);
+        trie.add(stack("B.b:1", "A.a:1"), MAX_DEPTH);
+
+        trie.add(stack("C.c:1", "B.b:1", "A.a:1"), MAX_DEPTH);
+        // no node at all to count it at
+        trie.add(stack("X.x:1"), MAX_DEPTH);
+        trie.add(stack("C.c:1", "B.b:1", "A.a:1"), 2);
+
+        assertThat(collapsed(trie, 1)).isEqualTo("A.a;B.b 2\n");
+        assertThat(trie.getSamples()).isEqualTo(4);
+        assertThat(trie.getTruncatedSamples()).isEqualTo(3);
+        assertThat(trie.getNodeCount()).isEqualTo(3);
+        // frames without a node are not interned either
+        assertThat(trie.getFrameCount()).isEqualTo(2);
+    }
+
+    @Test
+    void writesPathsDeeperThanItsInitialPathBuffer() {
+        FrameTrie trie = new FrameTrie(100);
+        String[] frames = IntStream.range(0, 40).mapToObj(i -> "F.f" + i + ":1").toArray(String[]::new);
+
+        trie.add(stack(frames), MAX_DEPTH);
+
+        String expected = IntStream.range(0, 40).map(i -> 39 - i).mapToObj(i -> "F.f" + i)
+                .collect(Collectors.joining(";"));
+        assertThat(collapsed(trie, 1)).isEqualTo(expected + " 1\n");
+    }
+
+    private static String collapsed(FrameTrie trie, long minCount) {
+        StringBuilder out = new StringBuilder();
+        trie.writeCollapsed(out, minCount);
+        return out.toString();
+    }
+
+    /**
+     * Builds a stack, innermost frame first, from Class.method:line frames.
+     */
+    private static StackTraceElement[] stack(String... frames) {
+        return Arrays.stream(frames).map(frame -> {
+            String[] parts = frame.split("[.:]");
+            return new StackTraceElement(parts[0], parts[1], parts[0] + ".java", Integer.parseInt(parts[2]));
+        }).toArray(StackTraceElement[]::new);
+    }
+}